@@ -0,0 +1,90 @@
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+
+import bench.Harness;
+
+// the simulator as seen by the benchmarks in the bench package, see Harness
+public class VmsimHarness implements Harness {
+    private vmsim.TwoLevelPageTable pt;
+    private String algo;
+    private int frames;
+    private int[] pages;
+    private byte[] ops;
+    private vmsim.NextUseTable nextUse;
+
+    public long parse(byte[] text) throws IOException {
+        long sum = 0;
+        try (vmsim.TraceReader reader = new vmsim.TraceReader(Channels.newChannel(new ByteArrayInputStream(text)))) {
+            while (reader.next()) {
+                sum += vmsim.getPageNum(reader.address());
+            }
+        }
+        return sum;
+    }
+
+    public void mapPages(int[] pages) {
+        pt = new vmsim.TwoLevelPageTable(vmsim.Geometry.DEFAULT);
+        for (int pageNum : pages) {
+            // getPTE allocates the leaf
+            pt.getPTE(pageNum);
+            pt.setPTE(pageNum, vmsim.PageTableEntry.map(0, 0));
+        }
+    }
+
+    public int lookup(int[] pages) {
+        int x = 0;
+        for (int pageNum : pages) {
+            x ^= pt.getPTE(pageNum);
+        }
+        return x;
+    }
+
+    public void prepare(String algo, int frames, int[] pages, byte[] ops) throws IOException {
+        this.algo = algo;
+        this.frames = frames;
+        this.pages = pages;
+        this.ops = ops;
+        // opt reads the next use table and never writes it, so one table serves every run
+        nextUse = algo.equals("opt") ? vmsim.processTrace(trace(pages, ops)) : null;
+    }
+
+    public long simulate() {
+        vmsim.Simulation sim = new vmsim.Simulation(algo, frames, nextUse, 0);
+        for (int i = 0; i < pages.length; i++) {
+            sim.access(pages[i], ops[i]);
+        }
+        return sim.pageFaults;
+    }
+
+    public long generate(String spec) {
+        vmsim.Generator generator = vmsim.Generator.parse(spec);
+        long sum = 0;
+        while (generator.next()) {
+            sum += vmsim.getPageNum(generator.address());
+        }
+        return sum;
+    }
+
+    // the references as a trace, for opt's pre-processing
+    private static vmsim.Trace trace(int[] pages, byte[] ops) {
+        return new vmsim.Trace() {
+            private int i = -1;
+
+            public boolean next() {
+                return ++i < pages.length;
+            }
+
+            public byte op() {
+                return ops[i];
+            }
+
+            public long address() {
+                return (long) pages[i] << 13;
+            }
+
+            public void close() {
+            }
+        };
+    }
+}
@@ -0,0 +1,45 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// cost per reference of the in-process workload generator, what a generated run pays instead of parsing
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GeneratorBenchmark {
+    static final int REFERENCES = 1 << 20;
+
+    @Param({"seq", "loop", "uniform", "zipf"})
+    public String pattern;
+
+    private Harness harness;
+    private String spec;
+
+    @Setup
+    public void setup() throws ReflectiveOperationException {
+        harness = Harness.load();
+        spec = "gen:" + pattern + ":pages=32K:refs=" + REFERENCES + ":seed=42";
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(REFERENCES)
+    public long generate() {
+        return harness.generate(spec);
+    }
+}
@@ -0,0 +1,30 @@
+package bench;
+
+import java.io.IOException;
+
+// what the benchmarks need from the simulator
+// vmsim lives in the unnamed package, which named packages can't import, and jmh only takes benchmarks
+// in a named package, so VmsimHarness sits in the unnamed package and is loaded by name
+public interface Harness {
+    // parse a lackey text trace, returning the sum of its page nums
+    long parse(byte[] text) throws IOException;
+
+    // build a page table with every page in pages mapped
+    void mapPages(int[] pages);
+
+    // look up every page in pages in the table built by mapPages, returning the xor of their pte's
+    int lookup(int[] pages);
+
+    // get ready to run the trace pages/ops through algo with frames frames, doing opt's pre-processing
+    void prepare(String algo, int frames, int[] pages, byte[] ops) throws IOException;
+
+    // run the prepared trace through a fresh simulation, returning its page faults
+    long simulate();
+
+    // run every reference of a generated workload, a gen: spec, returning the sum of its page nums
+    long generate(String spec);
+
+    static Harness load() throws ReflectiveOperationException {
+        return (Harness) Class.forName("VmsimHarness").getDeclaredConstructor().newInstance();
+    }
+}
@@ -0,0 +1,20 @@
+package bench;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+// jmh's own main with the gc profiler always on, so every run reports allocation rate next to ns per access
+public class Main {
+    public static void main(String[] args) throws Exception {
+        CommandLineOptions options = new CommandLineOptions(args);
+        try {
+            new Runner(new OptionsBuilder().parent(options).addProfiler(GCProfiler.class).build()).run();
+        } catch (RunnerException e) {
+            e.printStackTrace();
+            System.exit(1);
+        }
+    }
+}
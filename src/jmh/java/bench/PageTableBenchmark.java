@@ -0,0 +1,46 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// cost of a pte lookup in a populated page table
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PageTableBenchmark {
+    static final int REFERENCES = 1 << 20;
+
+    @Param({"SEQUENTIAL", "UNIFORM", "ZIPF"})
+    public Workload workload;
+
+    private Harness harness;
+    private int[] pages;
+
+    @Setup
+    public void setup() throws ReflectiveOperationException {
+        harness = Harness.load();
+        pages = workload.pages(REFERENCES, 42);
+        harness.mapPages(pages);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(REFERENCES)
+    public int lookup() {
+        return harness.lookup(pages);
+    }
+}
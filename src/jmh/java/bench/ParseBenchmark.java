@@ -0,0 +1,42 @@
+package bench;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// cost per line of parsing a lackey text trace, from memory so disk speed doesn't count
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParseBenchmark {
+    static final int LINES = 1 << 20;
+
+    private Harness harness;
+    private byte[] text;
+
+    @Setup
+    public void setup() throws ReflectiveOperationException {
+        harness = Harness.load();
+        text = Workload.text(Workload.UNIFORM.pages(LINES, 42), Workload.ops(LINES, 43));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LINES)
+    public long parse() throws IOException {
+        return harness.parse(text);
+    }
+}
@@ -0,0 +1,51 @@
+package bench;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// cost per access of each replacement policy, the whole simulation loop with page table and stats included
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PolicyBenchmark {
+    static final int REFERENCES = 1 << 20;
+
+    @Param({"lru", "clock", "opt", "arc", "2q", "clockpro", "lfu", "wsclock", "ws", "pff"})
+    public String algo;
+
+    @Param({"SEQUENTIAL", "UNIFORM", "ZIPF", "LOOP"})
+    public Workload workload;
+
+    @Param({"64", "1024", "16384"})
+    public int frames;
+
+    private Harness harness;
+
+    @Setup
+    public void setup() throws IOException, ReflectiveOperationException {
+        harness = Harness.load();
+        harness.prepare(algo, frames, workload.pages(REFERENCES, 42), Workload.ops(REFERENCES, 43));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(REFERENCES)
+    public long access() {
+        return harness.simulate();
+    }
+}
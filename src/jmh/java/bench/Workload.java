@@ -0,0 +1,103 @@
+package bench;
+
+import java.util.Random;
+
+// synthetic reference patterns over a fixed set of pages, generated up front so benchmarks only pay
+// for the simulation
+public enum Workload {
+    // pages in order, wrapping around at the end
+    SEQUENTIAL,
+    // every page equally likely
+    UNIFORM,
+    // zipfian popularity with skew 0.99, a few hot pages and a long tail
+    ZIPF,
+    // a loop over 1.5x the pages of the largest frame count benchmarked, lru's worst case
+    LOOP;
+
+    // distinct pages, 19 bit page nums as in a 32 bit address space
+    public static final int PAGES = 1 << 15;
+    private static final double ZIPF_SKEW = 0.99;
+    private static final int LOOP_PAGES = 24576;
+    private static final byte[] OPS = {'I', 'L', 'S', 'M'};
+
+    // page nums for count references, pages scattered over the address space so leaves fill realistically
+    public int[] pages(int count, long seed) {
+        Random random = new Random(seed);
+        int[] pages = new int[count];
+        double[] cdf = this == ZIPF ? zipfCdf() : null;
+        for (int i = 0; i < count; i++) {
+            int page;
+            switch (this) {
+                case SEQUENTIAL:
+                    page = i % PAGES;
+                    break;
+                case UNIFORM:
+                    page = random.nextInt(PAGES);
+                    break;
+                case ZIPF:
+                    page = search(cdf, random.nextDouble());
+                    break;
+                default:
+                    page = i % LOOP_PAGES;
+                    break;
+            }
+            pages[i] = scatter(page);
+        }
+        return pages;
+    }
+
+    // ops for count references, mostly fetches and loads like a real trace
+    public static byte[] ops(int count, long seed) {
+        Random random = new Random(seed);
+        byte[] ops = new byte[count];
+        for (int i = 0; i < count; i++) {
+            int r = random.nextInt(10);
+            ops[i] = OPS[r < 4 ? 0 : r < 7 ? 1 : r < 9 ? 2 : 3];
+        }
+        return ops;
+    }
+
+    // the same references as a lackey text trace
+    public static byte[] text(int[] pages, byte[] ops) {
+        StringBuilder sb = new StringBuilder(pages.length * 16);
+        sb.append("==1== Lackey, an example Valgrind tool\n");
+        for (int i = 0; i < pages.length; i++) {
+            sb.append(ops[i] == 'I' ? "I  " : " " + (char) ops[i] + " ");
+            sb.append(String.format("%08x", (pages[i] << 13) | (i & 0xFFF))).append(",4\n");
+        }
+        return sb.toString().getBytes();
+    }
+
+    // spread page i over the 19 bit page space, 16 pages to a 1024 entry leaf
+    private static int scatter(int page) {
+        return ((page >>> 4) * 64 + (page & 0xF)) & 0x7FFFF;
+    }
+
+    private static double[] zipfCdf() {
+        double[] cdf = new double[PAGES];
+        double sum = 0;
+        for (int i = 0; i < PAGES; i++) {
+            sum += 1 / Math.pow(i + 1, ZIPF_SKEW);
+            cdf[i] = sum;
+        }
+        for (int i = 0; i < PAGES; i++) {
+            cdf[i] /= sum;
+        }
+        return cdf;
+    }
+
+    // first index whose cdf reaches u
+    private static int search(double[] cdf, double u) {
+        int lo = 0;
+        int hi = cdf.length - 1;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (cdf[mid] < u) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+}
@@ -0,0 +1,64 @@
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Random;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+
+// every policy that takes prefetching with every prefetcher, at frame counts so small the demand page is often
+// the only one a prefetch could evict
+public class PrefetchTest {
+    static Stream<Arguments> configs() {
+        Stream.Builder<Arguments> configs = Stream.builder();
+        for (String algo : new String[] {"lru", "clock", "arc", "2q", "clockpro", "lfu", "wsclock", "ws", "pff"}) {
+            for (String prefetcher : new String[] {"seq", "stride", "markov"}) {
+                for (int frames : new int[] {1, 2}) {
+                    configs.add(Arguments.of(algo, prefetcher, frames));
+                }
+            }
+        }
+        return configs.build();
+    }
+
+    // sequential runs, strided runs, a short loop and random pages, so every prefetcher has something to act on
+    static long[] pages() {
+        Random random = new Random(7);
+        long[] pages = new long[4000];
+        for (int i = 0; i < pages.length; i++) {
+            switch ((i / 100) % 4) {
+                case 0:
+                    pages[i] = i;
+                    break;
+                case 1:
+                    pages[i] = 5000 + 3 * i;
+                    break;
+                case 2:
+                    pages[i] = 100 + i % 3;
+                    break;
+                default:
+                    pages[i] = random.nextInt(200);
+                    break;
+            }
+        }
+        return pages;
+    }
+
+    @ParameterizedTest
+    @MethodSource("configs")
+    public void demandPageStaysResident(String algo, String prefetcher, int frames) {
+        vmsim.Simulation sim = new vmsim.Simulation(algo, frames, null, 0);
+        sim.prefetcher = vmsim.Prefetcher.parse(prefetcher);
+        long[] pages = pages();
+        for (int i = 0; i < pages.length; i++) {
+            sim.access(pages[i], (byte) (i % 5 == 0 ? 'S' : 'L'));
+            // the page just referenced is still mapped once its prefetches are in
+            int pte = sim.spaces[0].pt.getPTE(pages[i]);
+            assertTrue((pte & vmsim.PageTableEntry.V) != 0, "page " + pages[i] + " evicted by its own prefetch");
+            assertTrue(sim.resident <= frames);
+        }
+        assertTrue(sim.pageFaults <= pages.length);
+        assertTrue(sim.usefulPrefetches <= sim.prefetches);
+    }
+}
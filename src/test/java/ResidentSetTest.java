@@ -0,0 +1,60 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.IOException;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+// working set and page fault frequency windows, on short traces of pages named by letter
+public class ResidentSetTest {
+    private final long defaultTau = vmsim.tau;
+
+    @AfterEach
+    public void restoreTau() {
+        vmsim.tau = defaultTau;
+    }
+
+    // faults of algo with plenty of frames over the pages in trace, A for page 0, B for page 1 and so on
+    static long faults(String algo, long tau, String trace) {
+        vmsim.tau = tau;
+        vmsim.Simulation sim = new vmsim.Simulation(algo, 16, null, 0);
+        for (char c : trace.toCharArray()) {
+            sim.access(c - 'A', (byte) 'L');
+        }
+        return sim.pageFaults;
+    }
+
+    @Test
+    public void workingSetOfOneKeepsTheLastPage() {
+        assertEquals(1, faults("ws", 1, "AAAAAAAAAA"));
+        assertEquals(4, faults("ws", 1, "ABAB"));
+    }
+
+    @Test
+    public void workingSetOfTwoKeepsTheLastTwoReferences() {
+        assertEquals(2, faults("ws", 2, "ABAB"));
+        assertEquals(4, faults("ws", 2, "ABCA"));
+        assertEquals(6, faults("ws", 2, "ABCABC"));
+        assertEquals(3, faults("ws", 3, "ABCABC"));
+    }
+
+    @Test
+    public void cappedPageFaultFrequencyReplacesLikeClock() throws IOException {
+        // tau is so long no fault shrinks the set, so it grows to the cap and clock replaces from there
+        String workload = "gen:zipf:theta=0.7:pages=4K:refs=200K:seed=5";
+        for (int frames : new int[] {64, 150}) {
+            vmsim.tau = Long.MAX_VALUE / 2;
+            vmsim.Simulation pff = new vmsim.Simulation("pff", frames, null, 0);
+            pff.run(vmsim.Generator.parse(workload));
+            vmsim.Simulation clock = new vmsim.Simulation("clock", frames, null, 0);
+            clock.run(vmsim.Generator.parse(workload));
+            assertEquals(clock.pageFaults, pff.pageFaults);
+        }
+    }
+
+    @Test
+    public void pageFaultFrequencyDropsPagesUnusedSinceTheLastFault() {
+        // the fault on D comes 4 references after C's, dropping A, so A faults again
+        assertEquals(5, faults("pff", 2, "ABACBBBDA"));
+    }
+}
@@ -0,0 +1,29 @@
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+
+import org.junit.jupiter.api.Test;
+
+// sampled runs against the exact run they estimate
+public class SamplingTest {
+    static final String WORKLOAD = "gen:zipf:theta=0.9:pages=256K:refs=2M:seed=11";
+
+    @Test
+    public void faultBoundCoversTheExactCount() throws IOException {
+        for (int frames : new int[] {2048, 8192}) {
+            vmsim.Simulation exact = new vmsim.Simulation("lru", frames, null, 0);
+            exact.run(vmsim.Generator.parse(WORKLOAD));
+
+            double rate = 0.1;
+            vmsim.SampledTrace sample = new vmsim.SampledTrace(vmsim.Generator.parse(WORKLOAD), rate);
+            vmsim.Simulation sampled = new vmsim.Simulation("lru", (int) Math.round(frames * rate), null, 0);
+            sampled.sample = sample;
+            sampled.run(sample);
+
+            long error = Math.abs(sampled.estimatedFaults() - exact.pageFaults);
+            assertTrue(error <= sampled.faultBound(), frames + " frames, off by " + error);
+            // and not by being so wide it says nothing
+            assertTrue(sampled.faultBound() < exact.pageFaults / 20, frames + " frames, bound " + sampled.faultBound());
+        }
+    }
+}
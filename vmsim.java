@@ -1,433 +1,968 @@
 import java.io.*;
-import java.util.HashMap;
-import java.util.LinkedList;
-import java.util.Queue;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.function.Supplier;
+import jdk.jfr.Category;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
 
-// compile: javac vmsim.java
-// cmd args: vmsim –n <numframes> -a <opt|clock|lru> <tracefile>
+// compile: javac vmsim.java, or mvn package for target/vmsim.jar, see pom.xml for the benchmarks
+// cmd args: vmsim –n <numframes> -a <opt|clock|lru|arc|2q|clockpro|lfu|wsclock|ws|pff> [-i <interval>]
+//           [-w <lookahead>] <tracefile>
+//           vmsim -n <n1,n2,...> -a <algo1,algo2,...> <tracefile>
+//           vmsim -n <numframes> -a <algo> -p <global|local> <tracefile> [<tracefile> ...]
+// a tracefile of - reads the trace from stdin, -i prints stats for every window of interval references
+// a tracefile of gen:<pattern>[:<option>=<value>...][,...] generates the references in process instead, a seeded
+// uniform, zipf, scan or loop workload in phases, e.g. gen:zipf:theta=0.8:refs=100M,seq:refs=10M, see Generator
+// -w limits opt to seeing lookahead references ahead, so it runs in bounded memory and on streams
+// -p gives every process its own page table and stats, sharing the frames (global) or splitting them evenly
+// (local), processes are the pid column after each reference's size, any pid but at most 4096 processes, or,
+// for several tracefiles, one per file, without -p the pid column is ignored
+// -t <entries>:<ways>[:lru|random][,<entries>:<ways>[:lru|random]] puts a tlb, with an optional second level,
+// in front of the page walk
+// -g <address bits>:<page size>:<levels>[:<huge page size>] sets the page table geometry, 32:8K:2 by default,
+// e.g. 48:4K:4 for x86-64 or 48:4K:4:2M for it with 2MB huge pages
+// -b <latency>:<bandwidth>[:<reference time>] models the disk that faults read from and dirty pages are written
+// to, timing every stall, e.g. 100us:500M:10ns, which is also the default
+// -c <dirty percent>:<batch> adds a background cleaner, writing batch of the longest dirty pages whenever more
+// than dirty percent of the frames are dirty and the disk is idle
+// -m <json|csv>[:<file>] writes every run's metrics, fault inter-arrival and eviction age histograms, working set
+// size per window (-i, or 10000 references) and ns per reference, to stdout or the file
+// sampled page fault and eviction events go to jfr whenever a flight recording enables vmsim events
+// -T <tau> is the working set window of wsclock and ws, and pff's fault interval, in references, 10000 by default
+// ws and pff size their own resident set, with numframes as the most they may use
+// -f <seq[:<max window>]|stride[:<degree>]|markov[:<entries>[:<successors>]]> reads pages in ahead of faults,
+// sequential read-ahead with an adaptive window, a stride detector, or a markov table of fault successors
+// -s <rate>[:<max pages>] simulates only the pages whose hash falls in a rate sized sample, with the frames scaled
+// by rate, and extrapolates faults and writes with a 95% interval, with a sweep it estimates the miss ratio curve
+// and reuse distance histogram from the sample, tracking at most max pages by lowering the rate as needed
+//           vmsim -n sweep[:<lo>-<hi>] -a lru <tracefile>
+//           vmsim convert [-d] [-g <geometry>] <tracefile> <binfile>
 
 public class vmsim {
-    // parameters and variables
-    private static int numFrames;
-    private static String algo;
+    // parameters and variables, several frame counts or algos make a batch run
+    private static int[] frameCounts;
+    private static String[] algos;
     private static String traceFile;
-    private static int vAddress;
-    private static String instructionBit;
-    private static HashMap<Integer, Queue<Integer>> hashmap;
+    // several trace files are merged, one process each
+    private static String[] traceFiles;
+    // -p, null for a single address space
+    private static String scope;
+    // -t, null for no tlb
+    private static String tlbConfig;
+    // -b and -c, both null for no write-back model
+    private static String diskConfig;
+    private static String cleanerConfig;
+    // -m, null for no metrics
+    private static String metricsFormat;
+    private static String metricsFile;
+    // -g, shared by every run since it decides how addresses become page nums
+    static Geometry geometry = Geometry.DEFAULT;
+    // print windowed stats every interval references, 0 for only the final stats
+    private static long interval;
+    // how many references ahead opt may look, 0 for the whole trace
+    private static int lookahead;
+    // -T, shared by every run
+    static long tau = Simulation.DEFAULT_TAU;
+    // -f, null for no prefetching
+    private static String prefetchConfig;
+    // -s, 0 for every reference, max pages 0 for a fixed rate
+    private static double sampleRate;
+    private static int sampleMaxPages;
+    // -n sweep, report lru faults for every frame count in [sweepLo, sweepHi] from one pass
+    private static boolean sweep;
+    private static int sweepLo;
+    private static int sweepHi;
 
-    // stats
-    private static int memAccesses = 0;
-    private static int pageFaults = 0;
-    private static int writesToDisk = 0;
+    // every replacement algorithm -a accepts
+    private static final List<String> ALGORITHMS = Arrays.asList("opt", "clock", "lru", "arc", "2q", "clockpro",
+            "lfu", "wsclock", "ws", "pff");
 
     public static void main(String args[]) {
 
-        // validate input parameters
-        if (args.length != 5) {
-            System.out.println("Invalid number of parameters, enter 5");
-            System.exit(0);
+        // pack a text trace into the binary format, which every algo can read in place of the text
+        if (args.length > 0 && args[0].equals("convert")) {
+            convert(args);
+            return;
         }
 
-        if (!(args[0].equals("-n") || args[2].equals("-a"))) {
-            System.out.println("Invalid parameter");
-            System.exit(0);
+        // validate and parse arguments, assigning parameter values
+        parseArgs(args);
+
+        // a sweep needs no page table or frames, just the stack distance of every access
+        if (sweep) {
+            if (sampleRate > 0) {
+                printShards(SHARDS());
+            } else {
+                printSweep(SWEEP());
+            }
+            return;
         }
 
-        if (!(args[3].equals("opt") || args[3].equals("clock") || args[3].equals("lru"))) {
-            System.out.println("Invalid algorithm");
+        // a stream can only be read once, so nothing can look ahead in it or keep all of it
+        boolean stream = false;
+        for (String file : traceFiles) {
+            stream |= isStream(file);
+        }
+        if (stream && (algos.length > 1 || frameCounts.length > 1 || (algos[0].equals("opt") && lookahead == 0))) {
+            System.out.println("Streamed traces only support a single run, with -w for opt");
             System.exit(0);
         }
 
-        // parse arguments and assign parameter values
-        parseArgs(args);
-
-        // initialize two level page table creating a root table pointing to leaf tables
-        TwoLevelPageTable pt = new TwoLevelPageTable();
-        // initialize RAM with number of frames given
-        RAM ram = new RAM(numFrames);
+        try {
+            if (algos.length == 1 && frameCounts.length == 1) {
+                // loop through trace file first to see future accesses, if running opt over the whole trace
+                NextUseTable nextUse = null;
+                if (algos[0].equals("opt") && lookahead == 0) {
+                    try (Trace trace = sample(openTraces())) {
+                        nextUse = processTrace(trace);
+                    }
+                }
+                // local replacement splits the frames between processes, so it needs to know how many there are
+                int processes = 0;
+                if ("local".equals(scope)) {
+                    processes = countProcesses(stream);
+                }
+                Simulation sim = new Simulation(algos[0], scaleFrames(frameCounts[0]), nextUse, lookahead, scope,
+                        processes);
+                if (tlbConfig != null) {
+                    sim.tlb = Tlb.parse(tlbConfig);
+                }
+                if (diskConfig != null || cleanerConfig != null) {
+                    sim.writeback = Writeback.parse(diskConfig, cleanerConfig, sim.numFrames);
+                }
+                if (prefetchConfig != null) {
+                    sim.prefetcher = Prefetcher.parse(prefetchConfig);
+                }
+                try (Trace trace = sample(openTraces())) {
+                    if (trace instanceof SampledTrace) {
+                        sim.sample = (SampledTrace) trace;
+                        sim.sampledFrom = frameCounts[0];
+                    }
+                    if (metricsFormat != null) {
+                        sim.metrics = new Metrics(sim, interval > 0 ? interval : Metrics.DEFAULT_WINDOW);
+                    }
+                    if (interval > 0) {
+                        WINDOWED(sim, trace);
+                    } else {
+                        sim.run(trace);
+                    }
+                }
 
-        // call whichever algo we're running
-        if (algo.equals("lru")) {
-            LRU(ram, pt);
-        } else if (algo.equals("opt")) {
-            OPT(ram, pt);
-        } else {
-            CLOCK(ram, pt);
+                // at end, print stats of simulation
+                printStats(sim);
+                if (scope != null) {
+                    printProcesses(sim);
+                }
+                if (algos[0].equals("opt") && lookahead > 0) {
+                    printLookahead(sim);
+                }
+                if (metricsFormat != null) {
+                    printMetrics(new Simulation[] {sim});
+                }
+            } else {
+                Simulation[] sims = BATCH();
+                printBatch(sims);
+                if (metricsFormat != null) {
+                    printMetrics(sims);
+                }
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
         }
-
-        // at end, print stats of simulation
-        printStats();
     }
 
     // --------------------------------------- ALGORITHMS -----------------------------------------------
 
-    private static void LRU(RAM ram, TwoLevelPageTable pt) {
-        // loop through trace file
-        try (BufferedReader trace = new BufferedReader(new FileReader(traceFile))) {
-            String line;
-            while ((line = trace.readLine()) != null) {
-                // only look at trace lines, do nothing otherwise
-                if (!line.startsWith("==")) {
-
-                    // calculate page num
-                    int pageNum = getPageNum(line);
-
-                    // extracting root index and leaf index using bitwise operations
-                    int rootIndex = vAddress >>> (23);
-                    int leafIndex = (vAddress >>> 13) & 0x3FF;
-
-                    // grab PTE
-                    PageTableEntry pte = pt.getPTE(rootIndex, leafIndex);
-
-                    // if valid bit is false, then we have a page fault
-                    if (!pte.v) {
-                        pageFaults++;
-
-                        // assign pageNum to frame and update frame info
-                        Frame frame = ram.allocateFrame(pte, pageNum);
+    // every algo at every frame count, decoding the trace once and running the simulations in parallel
+    private static Simulation[] BATCH() throws IOException {
+        DecodedTrace decoded;
+        SampledTrace sample = null;
+        try (Trace trace = sample(openTrace(traceFile))) {
+            decoded = new DecodedTrace(trace);
+            if (trace instanceof SampledTrace) {
+                sample = (SampledTrace) trace;
+            }
+        }
+        // future accesses are the same for every opt run
+        NextUseTable nextUse = null;
+        if (Arrays.asList(algos).contains("opt") && lookahead == 0) {
+            nextUse = processTrace(decoded.reader());
+        }
 
-                        // frames all full, do page replacement algo
-                        if (frame == null) {
-                            // grab lru frame
-                            Frame lruFrame = ram.frames.getFirst();
+        Simulation[] sims = new Simulation[algos.length * frameCounts.length];
+        List<Callable<Void>> tasks = new ArrayList<>();
+        for (int a = 0; a < algos.length; a++) {
+            for (int n = 0; n < frameCounts.length; n++) {
+                Simulation sim = new Simulation(algos[a], scaleFrames(frameCounts[n]), nextUse, lookahead);
+                if (sample != null) {
+                    sim.sample = sample;
+                    sim.sampledFrom = frameCounts[n];
+                }
+                if (tlbConfig != null) {
+                    sim.tlb = Tlb.parse(tlbConfig);
+                }
+                if (diskConfig != null || cleanerConfig != null) {
+                    sim.writeback = Writeback.parse(diskConfig, cleanerConfig, sim.numFrames);
+                }
+                if (prefetchConfig != null) {
+                    sim.prefetcher = Prefetcher.parse(prefetchConfig);
+                }
+                if (metricsFormat != null) {
+                    sim.metrics = new Metrics(sim, interval > 0 ? interval : Metrics.DEFAULT_WINDOW);
+                }
+                sims[a * frameCounts.length + n] = sim;
+                tasks.add(() -> {
+                    sim.run(decoded.reader());
+                    return null;
+                });
+            }
+        }
 
-                            // set valid bit to false as its about to be removed from RAM
-                            lruFrame.pte.v = false;
+        ForkJoinPool pool = new ForkJoinPool();
+        try {
+            for (Future<Void> task : pool.invokeAll(tasks)) {
+                task.get();
+            }
+        } catch (InterruptedException | ExecutionException e) {
+            throw new IOException("Batch run failed", e);
+        } finally {
+            pool.shutdown();
+        }
+        return sims;
+    }
 
-                            // if the dirty bit of the associated pte is set, write to disk
-                            if (lruFrame.pte.d) {
-                                writesToDisk++;
-                            }
+    // run the trace printing stats for every window of interval references as it goes
+    // memory use doesn't grow with the trace, so this works on unbounded streams
+    private static void WINDOWED(Simulation sim, Trace trace) throws IOException {
+        System.out.printf("%-14s%16s%16s%18s%16s\n", "References", "Window faults", "Window writes",
+                "Window accesses", "Total faults");
+        long faults = 0;
+        long writes = 0;
+        long accesses = 0;
+        trace = sim.lookahead(trace);
+        if (sim.metrics != null) {
+            sim.metrics.start();
+        }
+        while (trace.next()) {
+            sim.access(trace);
+            if (sim.references % interval == 0) {
+                System.out.printf("%-14d%16d%16d%18d%16d\n", sim.references, sim.pageFaults - faults,
+                        sim.writesToDisk - writes, sim.memAccesses - accesses, sim.pageFaults);
+                faults = sim.pageFaults;
+                writes = sim.writesToDisk;
+                accesses = sim.memAccesses;
+            }
+        }
+        if (sim.metrics != null) {
+            sim.metrics.finish();
+        }
+    }
 
-                            // mark the frame as free
-                            lruFrame.free = true;
+    // LRU for every frame count at once, using Mattson's stack algorithm
+    // an access with stack distance d hits in any LRU memory of at least d frames
+    private static StackDistance SWEEP() {
+        StackDistance stack = new StackDistance();
+        // loop through trace file
+        try (Trace trace = openTrace(traceFile)) {
+            while (trace.next()) {
+                stack.access(getPageNum(trace.address()));
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return stack;
+    }
 
-                            // allocate frame now that space is available
-                            ram.allocateFrame(pte, pageNum);
-                        }
-                        // page hit, need to update the positions of list
-                    } else {
-                        // get the frame associated with that pte
-                        Frame pageHitFrame = ram.getFrame(pageNum);
-                        // temporarily remove from list
-                        ram.frames.remove(pageHitFrame);
-                        // append it to the tail of the list since it is now MRU
-                        ram.frames.add(pageHitFrame);
-                    }
-                    // at this point the frame has been loaded into RAM
-                    // update valid and referenced bits
-                    pte.v = true;
-                    pte.r = true;
-                    // increment mem accesses accordingly
-                    calculateMemAccesses(pte);
-                }
+    // approximate LRU for every frame count at once from a spatially hashed sample of the pages, see Shards
+    private static Shards SHARDS() {
+        Shards shards = new Shards(sampleRate, sampleMaxPages);
+        // loop through trace file
+        try (Trace trace = openTrace(traceFile)) {
+            while (trace.next()) {
+                shards.access(getPageNum(trace.address()));
             }
         } catch (IOException e) {
             e.printStackTrace();
         }
+        return shards;
     }
 
-    private static void OPT(RAM ram, TwoLevelPageTable pt) {
-        // loop through trace file first to see future accesses
-        processTrace();
-        // loop through trace file to complete simulation
-        try (BufferedReader trace = new BufferedReader(new FileReader(traceFile))) {
-            String line;
-            int i = 0;
-            while ((line = trace.readLine()) != null) {
-                // only look at trace lines, do nothing otherwise
-                if (!line.startsWith("==")) {
-
-                    // calculate page num
-                    int pageNum = getPageNum(line);
-
-                    // extracting root index and leaf index using bitwise operations
-                    int rootIndex = vAddress >>> (23);
-                    int leafIndex = (vAddress >>> 13) & 0x3FF;
-
-                    // grab PTE
-                    PageTableEntry pte = pt.getPTE(rootIndex, leafIndex);
-
-                    // if valid bit is false, then we have a page fault
-                    if (!pte.v) {
-                        pageFaults++;
-
-                        // assign pageNum to frame and update frame info
-                        Frame frame = ram.allocateFrame(pte, pageNum);
-
-                        // frames all full, do page replacement algo
-                        if (frame == null) {
-                            int farthestAccess = -1;
-                            int pageNumToEvict = -1;
-
-                            // loop over each frame in ram
-                            for (Frame f : ram.frames) {
-                                // for each frame look at its page num's future accesses
-                                Queue<Integer> accesses = hashmap.get(f.pageNum);
-                                // if page is never accessed again, it's best candidate for eviction
-                                if (accesses == null || accesses.isEmpty()) {
-                                    pageNumToEvict = f.pageNum;
-                                    break;
-                                } else {
-                                    // else grab the head of the list at this page num
-                                    int access = accesses.peek();
-                                    // if this access is > than farthestAccess
-                                    if (access > farthestAccess) {
-                                        // assign farthestAccess to value of this access
-                                        farthestAccess = access;
-                                        // mark this page as the one to evict
-                                        pageNumToEvict = f.pageNum;
-                                    }
-                                }
-                            }
-                            // grab frame to evict
-                            Frame frameToEvict = ram.getFrame(pageNumToEvict);
-                            // set valid bit to false as its about to be removed from RAM
-                            frameToEvict.pte.v = false;
-                            // if the dirty bit of the associated pte is set, write to disk
-                            if (frameToEvict.pte.d) {
-                                writesToDisk++;
-                            }
+    // --------------------------------------- HELPER METHODS -----------------------------------------------
 
-                            // mark frame as free
-                            frameToEvict.free = true;
-                            // put new frame into memory
-                            ram.allocateFrame(pte, pageNum);
-                            // remove corresponding access from queue
-                            removeAccessed(pageNum, i);
-                        }
+    // the trace as the runs should read it, only the sampled pages' references with -s
+    private static Trace sample(Trace trace) {
+        return sampleRate > 0 ? new SampledTrace(trace, sampleRate) : trace;
+    }
 
-                        // if frame wasn't null, remove corresponding access from queue
-                        removeAccessed(pageNum, i);
-                    } else {
-                        // page hit, remove corresponding access from queue
-                        removeAccessed(pageNum, i);
-                    }
-                    // at this point the frame has been loaded into RAM
-                    // update valid and referenced bits
-                    pte.v = true;
-                    pte.r = true;
+    // frames a run over the sample gets, the sample's share of the frames asked for
+    private static int scaleFrames(int frames) {
+        return sampleRate > 0 ? (int) Math.max(1, Math.round(frames * sampleRate)) : frames;
+    }
 
-                    // increment mem accesses accordingly
-                    calculateMemAccesses(pte);
+    // stdin or anything that isn't a regular file, like a named pipe
+    private static boolean isStream(String path) {
+        if (path.startsWith(Generator.PREFIX)) {
+            return false;
+        }
+        return path.equals("-") || !Files.isRegularFile(Paths.get(path));
+    }
 
-                    // increment counter
-                    i++;
+    // open a trace, generated for a gen: spec, binary if it starts with the converted trace magic, lackey text
+    // otherwise, streams can't be mapped or peeked at, so they are always read as text
+    private static Trace openTrace(String path) throws IOException {
+        if (path.startsWith(Generator.PREFIX)) {
+            return Generator.parse(path);
+        }
+        if (path.equals("-")) {
+            return new TraceReader(Channels.newChannel(System.in), scope != null);
+        }
+        if (isStream(path)) {
+            return new TraceReader(Channels.newChannel(new FileInputStream(path)), scope != null);
+        }
+        FileChannel channel = FileChannel.open(Paths.get(path));
+        ByteBuffer magic = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+        // positional read, so the channel is still at the start for whichever reader takes it
+        channel.read(magic, 0);
+        if (magic.position() == 4 && (magic.getInt(0) == BinaryTraceWriter.MAGIC
+                || magic.getInt(0) == BinaryTraceWriter.OLD_MAGIC)) {
+            return new BinaryTraceReader(channel);
+        }
+        return new TraceReader(channel, scope != null);
+    }
+
+    // the trace for a single run, the files merged into one trace when there are several
+    private static Trace openTraces() throws IOException {
+        if (traceFiles.length == 1) {
+            return openTrace(traceFile);
+        }
+        Trace[] traces = new Trace[traceFiles.length];
+        for (int i = 0; i < traces.length; i++) {
+            traces[i] = openTrace(traceFiles[i]);
+        }
+        return new MergedTrace(traces);
+    }
+
+    // number of processes in the run, one per file, or the distinct pids in a single trace
+    private static int countProcesses(boolean stream) throws IOException {
+        if (traceFiles.length > 1) {
+            return traceFiles.length;
+        }
+        // a stream can't be read a second time
+        if (stream) {
+            System.out.println("Local replacement on a streamed trace needs one tracefile per process");
+            System.exit(0);
+        }
+        boolean[] seen = new boolean[AddressSpace.MAX_ASIDS];
+        int processes = 0;
+        try (Trace trace = openTrace(traceFile)) {
+            while (trace.next()) {
+                if (!seen[trace.asid()]) {
+                    seen[trace.asid()] = true;
+                    processes++;
+                }
+            }
+        }
+        return processes;
+    }
+
+    // convert [-d] [-g <geometry>] <tracefile> <binfile>, -d stores varint page deltas instead of fixed width
+    // records, pages are numbered with the geometry's page size
+    private static void convert(String[] args) {
+        boolean delta = false;
+        int arg = 1;
+        try {
+            for (; arg < args.length - 2; arg++) {
+                if (args[arg].equals("-d")) {
+                    delta = true;
+                } else if (args[arg].equals("-g") && arg < args.length - 3) {
+                    geometry = Geometry.parse(args[++arg]);
+                } else {
+                    break;
                 }
             }
+        } catch (NumberFormatException e) {
+            System.out.println("Invalid argument");
+            System.exit(0);
+        }
+        if (args.length - arg != 2) {
+            System.out.println("Invalid number of parameters, enter convert [-d] [-g <geometry>] <tracefile> <binfile>");
+            System.exit(0);
+        }
+        String in = args[arg];
+        String out = args[arg + 1];
+        Trace generator = null;
+        if (in.startsWith(Generator.PREFIX)) {
+            try {
+                generator = Generator.parse(in);
+            } catch (NumberFormatException e) {
+                System.out.println("Invalid argument");
+                System.exit(0);
+            }
+        }
+        try (Trace trace = generator != null ? generator : new TraceReader(in);
+                BinaryTraceWriter writer = new BinaryTraceWriter(out, delta, geometry.pageShift,
+                        geometry.pageBits > BinaryTraceWriter.NARROW_PAGE_BITS)) {
+            while (trace.next()) {
+                writer.write(getPageNum(trace.address()), trace.op());
+            }
+            System.out.printf("Converted %d references to %s\n", writer.count(), out);
         } catch (IOException e) {
             e.printStackTrace();
         }
     }
 
-    private static void CLOCK(RAM ram, TwoLevelPageTable pt) {
-        // loop through trace file
-        try (BufferedReader trace = new BufferedReader(new FileReader(traceFile))) {
-            String line;
-            while ((line = trace.readLine()) != null) {
-                // only look at trace lines, do nothing otherwise
-                if (!line.startsWith("==")) {
-
-                    // calculate page num
-                    int pageNum = getPageNum(line);
-
-                    // extracting root index and leaf index using bitwise operations
-                    int rootIndex = vAddress >>> (23);
-                    int leafIndex = (vAddress >>> 13) & 0x3FF;
-
-                    // grab PTE
-                    PageTableEntry pte = pt.getPTE(rootIndex, leafIndex);
-
-                    // if valid bit is false, then we have a page fault
-                    if (!pte.v) {
-                        pageFaults++;
-
-                        // assign pageNum to frame and update frame info
-                        Frame frame = ram.allocateFrame(pte, pageNum);
-
-                        // frames all full, do page replacement algo
-                        if (frame == null) {
-                            // grab current frame that clock is pointing to
-                            Frame curFrame = ram.frames.get(ram.clockPtr);
-
-                            while (true) {
-                                // if cur frame is referenced
-                                if (curFrame.pte.r) {
-                                    // reset referenced bit and move clock ptr forward in list
-                                    curFrame.pte.r = false;
-                                    ram.clockPtr = (ram.clockPtr + 1) % ram.frames.size();
-                                } else {
-                                    // referenced bit is not set, found frame to evict
-                                    // move clock ptr forward in list and break loop
-                                    ram.clockPtr = (ram.clockPtr + 1) % ram.frames.size();
-                                    break;
-                                }
-                            }
+    // pre-process trace for OPT, recording for every access the index of the next access to the same page
+    // package private, like getPageNum, so the benchmark harness can reach it
+    static NextUseTable processTrace(Trace trace) throws IOException {
+        NextUseTable nextUse = new NextUseTable();
+        // index of the most recent access to each page, -1 if not seen yet
+        PageValues lastAccess = new PageValues();
+        // loop through trace
+        int i = 0;
+        while (trace.next()) {
 
-                            // set valid bit to false as its about to be removed from RAM
-                            curFrame.pte.v = false;
+            // calculate page num, tagged with its process so pages of different processes never match
+            long key = geometry.key(scope == null ? 0 : trace.asid(), getPageNum(trace.address()));
 
-                            // if the dirty bit of the associated pte is set, write to disk
-                            if (curFrame.pte.d) {
-                                writesToDisk++;
-                            }
+            // this access is the next use of the previous one to the same page
+            int prev = (int) lastAccess.get(key);
+            lastAccess.put(key, i);
+            if (prev != -1) {
+                nextUse.set(prev, i);
+            }
+            // never used again unless a later access patches it
+            nextUse.set(i, NextUseTable.NEVER);
 
-                            // mark the frame as free
-                            curFrame.free = true;
+            // increment count
+            i++;
+        }
+        return nextUse;
+    }
 
-                            // allocate frame now that space is available
-                            ram.allocateFrame(pte, pageNum);
+    // parse input arguments and set variables
+    private static void parseArgs(String[] args) {
+        // flags come in pairs, followed by the trace files
+        if (args.length < 5) {
+            System.out.println("Invalid number of parameters");
+            System.exit(0);
+        }
+        String framesArg = null;
+        String algoArg = null;
+        int arg = 0;
+        try {
+            // a lone - is the stdin trace, not a flag
+            for (; arg < args.length - 1 && args[arg].startsWith("-") && args[arg].length() > 1; arg += 2) {
+                switch (args[arg]) {
+                    case "-n":
+                        framesArg = args[arg + 1];
+                        break;
+                    case "-a":
+                        algoArg = args[arg + 1];
+                        break;
+                    case "-i":
+                        interval = parseCount(args[arg + 1]);
+                        break;
+                    case "-w":
+                        long window = parseCount(args[arg + 1]);
+                        // the lookahead ring is indexed by int
+                        if (window >= Integer.MAX_VALUE) {
+                            throw new NumberFormatException(args[arg + 1]);
                         }
-                    }
+                        lookahead = (int) window;
+                        break;
+                    case "-g":
+                        geometry = Geometry.parse(args[arg + 1]);
+                        break;
+                    case "-T":
+                        tau = parseCount(args[arg + 1]);
+                        break;
+                    case "-s":
+                        String[] sampling = args[arg + 1].split(":");
+                        sampleRate = Double.parseDouble(sampling[0]);
+                        sampleMaxPages = sampling.length == 2 ? Integer.parseInt(sampling[1]) : 0;
+                        if (!(sampleRate > 0 && sampleRate <= 1) || sampling.length > 2 || sampleMaxPages < 0
+                                || (sampling.length == 2 && sampleMaxPages == 0)) {
+                            throw new NumberFormatException(args[arg + 1]);
+                        }
+                        break;
+                    case "-f":
+                        prefetchConfig = args[arg + 1];
+                        Prefetcher.parse(prefetchConfig);
+                        break;
+                    case "-t":
+                        tlbConfig = args[arg + 1];
+                        // fail on a bad config now rather than once the runs start
+                        Tlb.parse(tlbConfig);
+                        break;
+                    case "-b":
+                        diskConfig = args[arg + 1];
+                        Writeback.parse(diskConfig, null, 1);
+                        break;
+                    case "-c":
+                        cleanerConfig = args[arg + 1];
+                        Writeback.parse(null, cleanerConfig, 1);
+                        break;
+                    case "-m":
+                        String[] output = args[arg + 1].split(":", 2);
+                        metricsFormat = output[0];
+                        metricsFile = output.length == 2 ? output[1] : null;
+                        if (!(metricsFormat.equals("json") || metricsFormat.equals("csv"))) {
+                            System.out.println("Invalid metrics format");
+                            System.exit(0);
+                        }
+                        break;
+                    case "-p":
+                        scope = args[arg + 1];
+                        if (!(scope.equals("global") || scope.equals("local"))) {
+                            System.out.println("Invalid replacement scope");
+                            System.exit(0);
+                        }
+                        break;
+                    default:
+                        System.out.println("Invalid parameter");
+                        System.exit(0);
+                }
+            }
+        } catch (NumberFormatException e) {
+            System.out.println("Invalid argument");
+            System.exit(0);
+        }
+        if (framesArg == null || algoArg == null) {
+            System.out.println("Invalid parameter");
+            System.exit(0);
+        }
+        traceFiles = Arrays.copyOfRange(args, arg, args.length);
+        if (traceFiles.length == 0) {
+            System.out.println("Invalid number of parameters");
+            System.exit(0);
+        }
+        traceFile = traceFiles[0];
+        // several trace files only make sense as several processes
+        if (traceFiles.length > 1 && scope == null) {
+            scope = "global";
+        }
 
-                    // at this point the frame has been loaded into RAM
-                    // update valid and referenced bits
-                    pte.v = true;
-                    pte.r = true;
-                    // increment mem accesses accordingly
-                    calculateMemAccesses(pte);
+        // -n and -a may both be comma separated lists
+        algos = algoArg.split(",");
+        for (String algo : algos) {
+            if (!ALGORITHMS.contains(algo)) {
+                System.out.println("Invalid algorithm");
+                System.exit(0);
+            }
+        }
+        try {
+            // fail on a bad generator spec now rather than once the runs start
+            for (String file : traceFiles) {
+                if (file.startsWith(Generator.PREFIX)) {
+                    Generator.parse(file);
                 }
             }
-        } catch (IOException e) {
-            e.printStackTrace();
+            if (framesArg.startsWith("sweep")) {
+                parseSweep(framesArg, algoArg);
+            } else {
+                String[] counts = framesArg.split(",");
+                frameCounts = new int[counts.length];
+                for (int i = 0; i < counts.length; i++) {
+                    frameCounts[i] = Integer.parseInt(counts[i]);
+                    if (frameCounts[i] < 1) {
+                        throw new NumberFormatException(counts[i]);
+                    }
+                }
+            }
+        } catch (NumberFormatException e) {
+            System.out.println("Invalid argument");
+            System.exit(0);
+        }
+
+        // per process runs keep a page table per process, which batches, sweeps and opt's lookahead ring don't
+        if (scope != null && (sweep || algos.length > 1 || frameCounts.length > 1 || lookahead > 0)) {
+            System.out.println("Per process runs only support a single algo and frame count, without -w");
+            System.exit(0);
+        }
+        // a simulation's frames are scaled by one rate, only a sweep can lower it as it goes
+        if (sampleMaxPages > 0 && !sweep) {
+            System.out.println("A sample page limit is only supported for sweeps");
+            System.exit(0);
+        }
+        // a sweep has no simulation to take metrics of
+        if (sweep && metricsFormat != null) {
+            System.out.println("Metrics are not supported for sweeps");
+            System.exit(0);
+        }
+        // opt counts references through its hooks, and a sweep never faults, so neither can prefetch
+        if (prefetchConfig != null && (sweep || Arrays.asList(algos).contains("opt"))) {
+            System.out.println("Prefetching is not supported for opt or sweeps");
+            System.exit(0);
+        }
+        // opt's next use table is indexed by reference, which the processes' separate policies don't share
+        if ("local".equals(scope) && algos[0].equals("opt")) {
+            System.out.println("Local replacement is not supported for opt");
+            System.exit(0);
+        }
+        // ws and pff already decide how many frames each page gets, from one shared pool
+        if ("local".equals(scope) && (algos[0].equals("ws") || algos[0].equals("pff"))) {
+            System.out.println("Local replacement is not supported for ws and pff");
+            System.exit(0);
         }
     }
 
-    // --------------------------------------- HELPER METHODS -----------------------------------------------
+    // parse a positive count, optionally suffixed with K, M or G
+    private static long parseCount(String arg) {
+        long scale = 1;
+        switch (Character.toUpperCase(arg.charAt(arg.length() - 1))) {
+            case 'K':
+                scale = 1L << 10;
+                break;
+            case 'M':
+                scale = 1L << 20;
+                break;
+            case 'G':
+                scale = 1L << 30;
+                break;
+            default:
+                break;
+        }
+        long count = Long.parseLong(scale == 1 ? arg : arg.substring(0, arg.length() - 1)) * scale;
+        if (count < 1) {
+            throw new NumberFormatException(arg);
+        }
+        return count;
+    }
 
-    // pre-process trace for OPT
-    private static void processTrace() {
-        // create hashmap
-        hashmap = new HashMap<Integer, Queue<Integer>>();
-        // loop through trace file
-        try (BufferedReader trace = new BufferedReader(new FileReader(traceFile))) {
-            String line;
-            int i = 0;
-            while ((line = trace.readLine()) != null) {
-                // only look at trace lines, do nothing otherwise
-                if (!line.startsWith("==")) {
+    // parse a positive duration into ns, optionally suffixed with ns, us, ms or s, a bare number is ns
+    private static long parseTime(String arg) {
+        long scale = 1;
+        String digits = arg;
+        if (arg.endsWith("ns")) {
+            digits = arg.substring(0, arg.length() - 2);
+        } else if (arg.endsWith("us")) {
+            scale = 1000L;
+            digits = arg.substring(0, arg.length() - 2);
+        } else if (arg.endsWith("ms")) {
+            scale = 1000000L;
+            digits = arg.substring(0, arg.length() - 2);
+        } else if (arg.endsWith("s")) {
+            scale = 1000000000L;
+            digits = arg.substring(0, arg.length() - 1);
+        }
+        long time = Long.parseLong(digits) * scale;
+        if (time < 1) {
+            throw new NumberFormatException(arg);
+        }
+        return time;
+    }
 
-                    // calculate page num
-                    int pageNum = getPageNum(line);
+    // parse sweep or sweep:<lo>-<hi>, an open range runs up to the number of distinct pages
+    private static void parseSweep(String arg, String algorithm) {
+        // stack distances only give fault counts for lru
+        if (!algorithm.equals("lru")) {
+            System.out.println("Sweep is only supported for lru");
+            System.exit(0);
+        }
+        sweep = true;
+        sweepLo = 1;
+        sweepHi = 0;
+        if (arg.equals("sweep")) {
+            return;
+        }
+        if (!arg.startsWith("sweep:")) {
+            throw new NumberFormatException(arg);
+        }
+        String range = arg.substring(6);
+        int dash = range.indexOf('-');
+        if (dash == -1) {
+            sweepHi = Integer.parseInt(range);
+        } else {
+            sweepLo = Integer.parseInt(range.substring(0, dash));
+            sweepHi = Integer.parseInt(range.substring(dash + 1));
+        }
+        if (sweepLo < 1 || sweepHi < sweepLo) {
+            throw new NumberFormatException(arg);
+        }
+    }
 
-                    // add pageNum to hashmap with corresponding future accesses
-                    hashmap.putIfAbsent(pageNum, new LinkedList<>());
-                    hashmap.get(pageNum).add(i);
+    // print lru faults for each frame count in the sweep range
+    private static void printSweep(StackDistance stack) {
+        int hi = sweepHi == 0 ? Math.max(stack.distinctPages(), sweepLo) : sweepHi;
+        System.out.printf("Algorithm: %s\n", "lru");
+        System.out.printf("Total references: %d\n", stack.references());
+        System.out.printf("Distinct pages: %d\n", stack.distinctPages());
+        System.out.printf("%-18s%s\n", "Number of frames", "Total page faults");
+        long[] faults = stack.faults(hi);
+        for (int n = sweepLo; n <= hi; n++) {
+            System.out.printf("%-18d%d\n", n, faults[n]);
+        }
+    }
 
-                    // increment count
-                    i++;
-                }
+    // print the estimated lru faults for each frame count in the sweep range, and the reuse distances behind them
+    private static void printShards(Shards shards) {
+        long distinct = Math.round(shards.distinctPages() / shards.rate());
+        int hi = sweepHi == 0 ? (int) Math.max(Math.min(distinct, Integer.MAX_VALUE), sweepLo) : sweepHi;
+        System.out.printf("Algorithm: %s\n", "lru");
+        System.out.printf("Total references: %d\n", shards.references);
+        System.out.printf("Sampled references: %d (rate %.6f, %d pages tracked)\n", shards.sampled, shards.rate(),
+                shards.distinctPages());
+        System.out.printf("Estimated distinct pages: %d\n", distinct);
+        System.out.printf("%-22s%s\n", "Reuse distance", "Estimated references");
+        long[] bins = shards.distanceBins();
+        for (int b = 0; b < bins.length; b++) {
+            if (bins[b] != 0) {
+                System.out.printf("%-22s%d\n", "<= " + (1L << b), bins[b]);
+            }
+        }
+        System.out.printf("%-22s%d\n", "cold", shards.coldReferences());
+        System.out.printf("%-18s%s\n", "Number of frames", "Estimated page faults");
+        long[] faults = shards.faults(hi);
+        for (int n = sweepLo; n <= hi; n++) {
+            System.out.printf("%-18d%d\n", n, faults[n]);
+        }
+    }
+
+    // print out stats related to algo and page table
+    private static void printStats(Simulation sim) {
+        System.out.printf("Algorithm: %s\n", sim.algo);
+        if (sim.sample != null) {
+            System.out.printf("Number of frames: %d (scaled from %d)\n", sim.numFrames, sim.sampledFrom);
+        } else {
+            System.out.printf("Number of frames: %d\n", sim.numFrames);
+        }
+        if (sim.geometry != Geometry.DEFAULT) {
+            System.out.printf("Page table geometry: %s\n", sim.geometry);
+        }
+        System.out.printf("Total memory accesses: %d\n", sim.memAccesses);
+        System.out.printf("Total page faults: %d\n", sim.pageFaults);
+        System.out.printf("Total writes to disk: %d\n", sim.writesToDisk);
+        System.out.printf("Number of page table leaves: %d\n", 1 << sim.geometry.leafBits());
+        System.out.printf("Total size of page table: %d bytes\n", sim.geometry.fullSize());
+        System.out.printf("Resident page table leaves: %d\n", sim.leafCount());
+        System.out.printf("Resident size of page table: %d bytes\n", sim.residentSize());
+        if (sim.tlb != null) {
+            Tlb tlb = sim.tlb;
+            System.out.printf("TLB lookups: %d\n", tlb.lookups);
+            System.out.printf("TLB hit rate: %.2f%% (L1 %d hits, L2 %d hits)\n", tlb.hitRate(), tlb.l1Hits, tlb.l2Hits);
+            System.out.printf("Page walks: %d\n", tlb.walks);
+            System.out.printf("Page walk memory accesses: %d\n", sim.walkAccesses);
+        }
+        if (sim.variable) {
+            System.out.printf("Average resident set: %.2f frames (peak %d)\n", sim.averageResident(),
+                    sim.peakResident);
+        }
+        if (sim.prefetcher != null) {
+            System.out.printf("Prefetched pages: %d\n", sim.prefetches);
+            System.out.printf("Prefetch accuracy: %.2f%% (%d used)\n", sim.prefetchAccuracy(), sim.usefulPrefetches);
+            System.out.printf("Prefetch coverage: %.2f%% of misses\n", sim.prefetchCoverage());
+            System.out.printf("Wasted prefetches: %d evicted unused, %d resident unused\n", sim.wastedPrefetches,
+                    sim.unusedPrefetches());
+        }
+        if (sim.sample != null) {
+            SampledTrace sample = sim.sample;
+            System.out.printf("Sampling rate: %.6f (%d of %d references, %d pages)\n", sample.rate(), sample.sampled,
+                    sample.references, sample.pages);
+            System.out.printf("Estimated page faults: %d +/- %d (95%%)\n", sim.estimatedFaults(), sim.faultBound());
+            System.out.printf("Estimated writes to disk: %d\n", sim.estimatedWrites());
+        }
+        if (sim.writeback != null) {
+            Writeback wb = sim.writeback;
+            System.out.printf("Simulated time: %.3f ms\n", wb.now / 1e6);
+            System.out.printf("Fault read stall: %.3f ms\n", wb.readStall / 1e6);
+            System.out.printf("Write-back stall: %.3f ms (%d synchronous write-backs)\n", wb.writeStall / 1e6,
+                    wb.syncWrites);
+            if (wb.batch > 0) {
+                System.out.printf("Cleaner batches: %d (%d pages in %d disk writes)\n", wb.batches, wb.cleanedPages,
+                        wb.cleanerWrites);
+                System.out.printf("Write-backs hidden by cleaner: %d (%.2f%%, %.3f ms)\n", wb.hidden,
+                        wb.hiddenRate(), wb.hiddenTime / 1e6);
+                System.out.printf("Cleaned pages dirtied again: %d\n", wb.redirtied);
             }
-        } catch (IOException e) {
-            e.printStackTrace();
         }
     }
 
-    // remove access from hashmap - for OPT
-    private static void removeAccessed(int pageNum, int index) {
-        // get queue of accesses for page num
-        Queue<Integer> accesses = hashmap.get(pageNum);
-        if (accesses != null) {
-            // remove the index from the queue that's been accessed
-            if (!accesses.isEmpty() && accesses.peek() == index) {
-                accesses.poll();
+    // print one row per process of a per process run
+    private static void printProcesses(Simulation sim) {
+        System.out.printf("%-10s%14s%18s%16s%16s%16s\n", "Process", "References", "Memory accesses", "Page faults",
+                "Writes to disk", "Resident pages");
+        for (AddressSpace space : sim.spaces) {
+            if (space != null) {
+                System.out.printf("%-10d%14d%18d%16d%16d%16d\n", space.pid, space.references, space.memAccesses,
+                        space.pageFaults, space.writesToDisk, space.residentPages);
             }
         }
     }
 
-    // calculate number of memory accesses made
-    private static void calculateMemAccesses(PageTableEntry pte) {
-        // if instruction is a fetch or load increment mem accesses by 1
-        if (instructionBit.equals("I") || instructionBit.equals("L")) {
-            memAccesses++;
-            // if a store, increment mem accesses by 1 and set dirty bit to true
-        } else if (instructionBit.equals("S")) {
-            memAccesses++;
-            pte.d = true;
-            // else we have a modify (read and write), increment mem accesses by 2 and set
-            // dirty bit to true
-        } else {
-            memAccesses += 2;
-            pte.d = true;
+    // compare bounded lookahead opt with opt over the whole trace, which needs a second pass over the file
+    private static void printLookahead(Simulation sim) throws IOException {
+        System.out.printf("Lookahead window: %d references\n", lookahead);
+        if (isStream(traceFile)) {
+            return;
+        }
+        NextUseTable nextUse;
+        try (Trace trace = sample(openTrace(traceFile))) {
+            nextUse = processTrace(trace);
         }
+        Simulation full = new Simulation("opt", sim.numFrames, nextUse, 0);
+        try (Trace trace = sample(openTrace(traceFile))) {
+            full.run(trace);
+        }
+        long extra = sim.pageFaults - full.pageFaults;
+        System.out.printf("Full OPT page faults: %d\n", full.pageFaults);
+        System.out.printf("Faults over full OPT: %d (%.2f%%)\n", extra,
+                full.pageFaults == 0 ? 0.0 : 100.0 * extra / full.pageFaults);
     }
 
-    // parse input arguments and set variables
-    private static void parseArgs(String[] args) {
-        // parse args and set parameter variables
+    // print one row per run of a batch
+    private static void printBatch(Simulation[] sims) {
+        System.out.printf("%-10s%12s%18s%16s%16s", "Algorithm", "Frames", "Memory accesses", "Page faults",
+                "Writes to disk");
+        if (tlbConfig != null) {
+            System.out.printf("%14s%16s", "TLB hit rate", "Walk accesses");
+        }
+        if (diskConfig != null || cleanerConfig != null) {
+            System.out.printf("%16s%14s", "Stall time ms", "Sync writes");
+        }
+        boolean variable = false;
+        for (Simulation sim : sims) {
+            variable |= sim.variable;
+        }
+        if (variable) {
+            System.out.printf("%14s", "Avg resident");
+        }
+        if (prefetchConfig != null) {
+            System.out.printf("%14s%12s%12s", "Prefetched", "Accuracy", "Coverage");
+        }
+        if (sampleRate > 0) {
+            System.out.printf("%14s%16s%12s%16s", "Scaled frames", "Est. faults", "+/- 95%", "Est. writes");
+        }
+        System.out.println();
+        for (Simulation sim : sims) {
+            System.out.printf("%-10s%12d%18d%16d%16d", sim.algo, sim.sample != null ? sim.sampledFrom : sim.numFrames,
+                    sim.memAccesses, sim.pageFaults, sim.writesToDisk);
+            if (sim.tlb != null) {
+                System.out.printf("%13.2f%%%16d", sim.tlb.hitRate(), sim.walkAccesses);
+            }
+            if (sim.writeback != null) {
+                System.out.printf("%16.3f%14d", sim.writeback.stall() / 1e6, sim.writeback.syncWrites);
+            }
+            if (variable) {
+                System.out.printf("%14.2f", sim.averageResident());
+            }
+            if (sim.prefetcher != null) {
+                System.out.printf("%14d%11.2f%%%11.2f%%", sim.prefetches, sim.prefetchAccuracy(),
+                        sim.prefetchCoverage());
+            }
+            if (sim.sample != null) {
+                System.out.printf("%14d%16d%12d%16d", sim.numFrames, sim.estimatedFaults(), sim.faultBound(),
+                        sim.estimatedWrites());
+            }
+            System.out.println();
+        }
+    }
+
+    // write every run's metrics as a json array or csv rows, to the -m file or stdout
+    private static void printMetrics(Simulation[] sims) throws IOException {
+        PrintStream out = metricsFile == null ? System.out
+                : new PrintStream(new BufferedOutputStream(new FileOutputStream(metricsFile)));
         try {
-            numFrames = Integer.parseInt(args[1]);
-        } catch (NumberFormatException e) {
-            System.out.println("Invalid argument");
-            System.exit(0);
+            if (metricsFormat.equals("json")) {
+                out.println("[");
+                for (int i = 0; i < sims.length; i++) {
+                    sims[i].metrics.writeJson(out, i + 1 < sims.length);
+                }
+                out.println("]");
+            } else {
+                out.println("algorithm,frames,metric,value");
+                for (Simulation sim : sims) {
+                    sim.metrics.writeCsv(out);
+                }
+            }
+        } finally {
+            if (out != System.out) {
+                out.close();
+            } else {
+                out.flush();
+            }
         }
-        algo = args[3];
-        traceFile = args[4];
     }
 
-    // print out stats related to algo and page table
-    private static void printStats() {
-        System.out.printf("Algorithm: %s\n", algo);
-        System.out.printf("Number of frames: %d\n", numFrames);
-        System.out.printf("Total memory accesses: %d\n", memAccesses);
-        System.out.printf("Total page faults: %d\n", pageFaults);
-        System.out.printf("Total writes to disk: %d\n", writesToDisk);
-        System.out.printf("Number of page table leaves: %d\n", 1024);
-        System.out.printf("Total size of page table: %d bytes\n", calculateSize());
-    }
-
-    // calculate size of page table
-    private static int calculateSize() {
-        // assuming 4 byte pte
-        int pteSize = 4;
-        // 1024 entries holding 4 byte pte's
-        int leafSize = pteSize * 1024;
-        // 512 entries with 4 byte ptrs
-        int rootSize = pteSize * 512;
-        // size of root + size of all leaf tables
-        return rootSize + (512 * leafSize);
-    }
-
-    // calculate page number
-    private static int getPageNum(String line) {
-        // remove spaces in trace string
-        line = line.replaceAll("\\s+", "");
-        // get instruction type
-        instructionBit = line.substring(0, 1);
-        // 8 hex digits = 32 bit VA
-        String hexAddress = line.substring(1, 9);
-        // convert hex string to 32 bit int
-        vAddress = Integer.parseUnsignedInt(hexAddress, 16);
-        // isolate page number bits, 19 bits for root (9) + leaf (10)
-        return (vAddress >>> 13) & 0x7FFFF;
+    // calculate page number, dropping address bits past the geometry's width
+    static long getPageNum(long address) {
+        return (address & geometry.addressMask) >>> geometry.pageShift;
+    }
+
+    // address of the start of a page
+    static long pageAddress(long pageNum) {
+        return pageNum << geometry.pageShift;
     }
 
     // --------------------------------------- CLASSES -----------------------------------------------
 
-    // PTE
-    public static class PageTableEntry {
-        boolean v;
-        boolean d;
-        boolean r;
+    // PTE, packed into an int: bit 0 valid, bit 1 dirty, bits 3-31 frame number
+    // bit 2 was the referenced bit, now unused since every policy keeps its own referenced state per frame
+    public static final class PageTableEntry {
+        public static final int V = 1;
+        public static final int D = 2;
+        public static final int FRAME_SHIFT = 3;
+
+        private PageTableEntry() {
+        }
+
+        // frame holding the page, only meaningful while v is set
+        public static int frame(int pte) {
+            return pte >>> FRAME_SHIFT;
+        }
 
-        public PageTableEntry(boolean v, boolean d, boolean r) {
-            this.v = v;
-            this.d = d;
-            this.r = r;
+        // pte for the page loaded into frame, the dirty bit carries over
+        public static int map(int pte, int frame) {
+            return (pte & D) | V | (frame << FRAME_SHIFT);
         }
     }
 
+    // page table holding packed ptes
+    public interface PageTable {
+        // obtain PTE, allocating the tables holding it on first touch
+        int getPTE(long pageNum);
+
+        // store PTE, only for entries already touched through getPTE
+        void setPTE(long pageNum, int pte);
+
+        // number of leaf tables allocated so far
+        int leafCount();
+
+        // bytes of page table actually allocated, with the geometry's entry size for pte's and pointers
+        long residentSize();
+
+        // memory accesses a page walk makes, one per level
+        int levels();
+    }
+
     // leaf page table
     public static class LeafPageTable {
-        PageTableEntry[] ptEntries;
+        // 2^10 = 1024 PTE's by default, all zero so invalid until touched
+        int[] ptEntries;
 
-        // initialize PTE's in each leaf page table
-        public LeafPageTable() {
-            // leaf = 10 bits, 2^10 = 1024 PTE's
-            ptEntries = new PageTableEntry[1024];
-            for (int i = 0; i < 1024; i++) {
-                ptEntries[i] = new PageTableEntry(false, false, false);
-            }
+        public LeafPageTable(int entries) {
+            ptEntries = new int[entries];
         }
     }
 
@@ -435,96 +970,4301 @@ public class vmsim {
     public static class RootPageTable {
         LeafPageTable[] leaves;
 
-        // create a root page table of given size, given 2^9 = 512 leaves
-        public RootPageTable() {
-            leaves = new LeafPageTable[512];
+        // create a root page table of given size, 2^9 = 512 leaves by default
+        public RootPageTable(int entries) {
+            leaves = new LeafPageTable[entries];
         }
     }
 
     // two level page table
-    public static class TwoLevelPageTable {
+    public static class TwoLevelPageTable implements PageTable {
         RootPageTable rootTable;
+        int leafCount = 0;
+        private final int leafBits;
+        private final int leafMask;
+        private final int entryBytes;
 
-        public TwoLevelPageTable() {
+        public TwoLevelPageTable(Geometry geometry) {
             // initialize the root page table
-            this.rootTable = new RootPageTable();
+            this.rootTable = new RootPageTable(1 << geometry.levelBits[0]);
+            this.leafBits = geometry.levelBits[1];
+            this.leafMask = (1 << leafBits) - 1;
+            this.entryBytes = geometry.entryBytes;
         }
 
         // obtain PTE
-        public PageTableEntry getPTE(int rootIndex, int leafIndex) {
+        public int getPTE(long pageNum) {
+            // extracting root index and leaf index using bitwise operations
+            int rootIndex = (int) (pageNum >>> leafBits);
             // obtain leaf page table at root index
             LeafPageTable leafPt = rootTable.leaves[rootIndex];
             // if no leaf exists, create one and assign the root index to contain that leaf
             if (leafPt == null) {
-                leafPt = new LeafPageTable();
+                leafPt = new LeafPageTable(leafMask + 1);
                 rootTable.leaves[rootIndex] = leafPt;
+                leafCount++;
             }
             // return the PTE corresponding to the leaf index
-            return leafPt.ptEntries[leafIndex];
+            return leafPt.ptEntries[(int) pageNum & leafMask];
         }
-    }
 
-    // RAM
-    public static class RAM {
-        private LinkedList<Frame> frames;
-        // private int numFrames;
-        private int clockPtr = 0;
+        public void setPTE(long pageNum, int pte) {
+            rootTable.leaves[(int) (pageNum >>> leafBits)].ptEntries[(int) pageNum & leafMask] = pte;
+        }
+
+        public int leafCount() {
+            return leafCount;
+        }
 
-        public RAM(int numFrames) {
-            // this.numFrames = numFrames;
-            this.frames = new LinkedList<>();
+        public long residentSize() {
+            // root pointers plus the pte's of every allocated leaf
+            return (long) entryBytes * (rootTable.leaves.length + (long) (leafMask + 1) * leafCount);
+        }
 
-            // initialize frames in RAM
-            for (int i = 0; i < numFrames; i++) {
-                // initialize all page nums to -1, as real page nums cant be negative
-                frames.add(new Frame(-1));
-            }
+        public int levels() {
+            return 2;
         }
+    }
 
-        // grab frame at page number
-        public Frame getFrame(int pageNum) {
-            for (Frame frame : frames) {
-                if (frame.pageNum == pageNum) {
-                    return frame;
-                }
+    // page table of any depth, directories of pointers down to leaves of pte's, each allocated on first touch
+    public static class MultiLevelPageTable implements PageTable {
+        // shift and mask of the index into each level, top level first
+        private final int[] shifts;
+        private final int[] masks;
+        private final int leafMask;
+        private final int entryBytes;
+        private final Object[] root;
+        private int leafCount = 0;
+        private long entries;
+        // leaf of the last lookup, setPTE nearly always follows getPTE for the same page
+        private long lastLeafNum = -1;
+        private int[] lastLeaf;
+
+        public MultiLevelPageTable(Geometry geometry) {
+            int levels = geometry.levels();
+            shifts = new int[levels];
+            masks = new int[levels];
+            int shift = 0;
+            for (int l = levels - 1; l >= 0; l--) {
+                shifts[l] = shift;
+                masks[l] = (1 << geometry.levelBits[l]) - 1;
+                shift += geometry.levelBits[l];
             }
-            return null;
+            leafMask = masks[levels - 1];
+            entryBytes = geometry.entryBytes;
+            root = new Object[masks[0] + 1];
+            entries = root.length;
         }
 
-        // allocate frame with page num and update frame info
-        public Frame allocateFrame(PageTableEntry pte, int pageNum) {
-            for (Frame frame : frames) {
-                if (frame.free) {
-                    // add new frame info
-                    frame.pageNum = pageNum;
-                    frame.pte = pte;
-                    // mark as not free
-                    frame.free = false;
+        public int getPTE(long pageNum) {
+            return leaf(pageNum)[(int) pageNum & leafMask];
+        }
 
-                    // only if lru algo, temporarily remove from list
-                    if (algo.equals("lru")) {
-                        frames.remove(frame);
-                        // append it to the tail of the list since it is now MRU
-                        frames.add(frame);
-                    }
+        public void setPTE(long pageNum, int pte) {
+            leaf(pageNum)[(int) pageNum & leafMask] = pte;
+        }
 
-                    return frame;
-                }
-            }
-            return null;
+        public int leafCount() {
+            return leafCount;
         }
-    }
 
-    // frame
-    public static class Frame {
-        int pageNum;
-        PageTableEntry pte;
-        boolean free;
+        public long residentSize() {
+            return entries * entryBytes;
+        }
 
-        public Frame(int pageNum) {
-            this.pageNum = pageNum;
-            this.pte = null;
-            this.free = true;
+        public int levels() {
+            return shifts.length;
+        }
+
+        // leaf holding page num's pte, walking down from the root and allocating tables on the way
+        private int[] leaf(long pageNum) {
+            long leafNum = pageNum >>> shifts[shifts.length - 2];
+            if (leafNum == lastLeafNum) {
+                return lastLeaf;
+            }
+            Object[] directory = root;
+            int last = shifts.length - 2;
+            for (int l = 0; l < last; l++) {
+                int index = (int) (pageNum >>> shifts[l]) & masks[l];
+                Object[] next = (Object[]) directory[index];
+                if (next == null) {
+                    next = new Object[masks[l + 1] + 1];
+                    directory[index] = next;
+                    entries += next.length;
+                }
+                directory = next;
+            }
+            int index = (int) (pageNum >>> shifts[last]) & masks[last];
+            int[] leaf = (int[]) directory[index];
+            if (leaf == null) {
+                leaf = new int[leafMask + 1];
+                directory[index] = leaf;
+                entries += leaf.length;
+                leafCount++;
+            }
+            lastLeafNum = leafNum;
+            lastLeaf = leaf;
+            return leaf;
+        }
+    }
+
+    // page table for one of many address spaces, allocating only what a process touches
+    // the root is a short list of the leaves in use until the process outgrows it, and each leaf is
+    // split into blocks of 64 pte's allocated on first touch
+    public static class SparsePageTable implements PageTable {
+        private static final int SHORT_ROOT = 8;
+
+        private final int rootEntries;
+        private final int leafBits;
+        private final int leafMask;
+        private final int blockShift;
+        private final int blockMask;
+        private final int entryBytes;
+        // root indexes of the leaves while the root is short, null once leaves is indexed by root index
+        private int[] rootIndexes = new int[SHORT_ROOT];
+        private int[][][] leaves = new int[SHORT_ROOT][][];
+        private int leafCount = 0;
+        private int blockCount = 0;
+
+        public SparsePageTable(Geometry geometry) {
+            rootEntries = 1 << geometry.levelBits[0];
+            leafBits = geometry.levelBits[1];
+            leafMask = (1 << leafBits) - 1;
+            blockShift = Math.min(6, leafBits);
+            blockMask = (1 << blockShift) - 1;
+            entryBytes = geometry.entryBytes;
+        }
+
+        public int getPTE(long pageNum) {
+            int leafIndex = (int) pageNum & leafMask;
+            int[][] leaf = leaf((int) (pageNum >>> leafBits));
+            int[] block = leaf[leafIndex >>> blockShift];
+            if (block == null) {
+                block = new int[1 << blockShift];
+                leaf[leafIndex >>> blockShift] = block;
+                blockCount++;
+            }
+            return block[leafIndex & blockMask];
+        }
+
+        public void setPTE(long pageNum, int pte) {
+            int leafIndex = (int) pageNum & leafMask;
+            leaf((int) (pageNum >>> leafBits))[leafIndex >>> blockShift][leafIndex & blockMask] = pte;
+        }
+
+        public int leafCount() {
+            return leafCount;
+        }
+
+        public long residentSize() {
+            // a root or leaf entry is a pointer, plus a 4 byte root index while the root is short
+            long root = rootIndexes == null ? (long) entryBytes * rootEntries : (entryBytes + 4L) * SHORT_ROOT;
+            return root + (long) entryBytes * (((leafMask + 1) >> blockShift) * (long) leafCount
+                    + (1L << blockShift) * blockCount);
+        }
+
+        public int levels() {
+            return 2;
+        }
+
+        // leaf at root index, allocating it on first touch
+        private int[][] leaf(int rootIndex) {
+            if (rootIndexes == null) {
+                int[][] leaf = leaves[rootIndex];
+                if (leaf == null) {
+                    leaf = newLeaf();
+                    leaves[rootIndex] = leaf;
+                }
+                return leaf;
+            }
+            for (int i = 0; i < leafCount; i++) {
+                if (rootIndexes[i] == rootIndex) {
+                    return leaves[i];
+                }
+            }
+            if (leafCount == SHORT_ROOT) {
+                // the process has outgrown the short root, index leaves by root index from now on
+                int[][][] full = new int[rootEntries][][];
+                for (int i = 0; i < leafCount; i++) {
+                    full[rootIndexes[i]] = leaves[i];
+                }
+                leaves = full;
+                rootIndexes = null;
+                return leaf(rootIndex);
+            }
+            int[][] leaf = newLeaf();
+            rootIndexes[leafCount - 1] = rootIndex;
+            leaves[leafCount - 1] = leaf;
+            return leaf;
+        }
+
+        private int[][] newLeaf() {
+            leafCount++;
+            return new int[(leafMask + 1) >> blockShift][];
+        }
+    }
+
+    // page table geometry, the address width, page size and how many bits of page num index each level
+    // the default 32:8K:2 is the original split, a 9 bit root, 10 bit leaves and a 13 bit offset
+    // with a huge page size the lowest levels fold into the page offset, so pages are bigger and walks shorter
+    public static class Geometry {
+        public static final Geometry DEFAULT = new Geometry(32, 13, 2, 0);
+
+        final int addressBits;
+        final long addressMask;
+        final int basePageShift;
+        // shift of the pages actually mapped, the huge page shift if there is one
+        final int pageShift;
+        final int pageBits;
+        // index bits of each level walked, top level first
+        final int[] levelBits;
+        // pte's and pointers are 4 bytes with 32 bit addresses and 8 bytes past that
+        final int entryBytes;
+
+        // levels are split as evenly as possible, the lowest levels taking any extra bits
+        public Geometry(int addressBits, int basePageShift, int levels, int hugePageShift) {
+            int bits = addressBits - basePageShift;
+            if (addressBits < 16 || addressBits > 64 || basePageShift < 8 || levels < 2 || levels > 5
+                    || bits < levels || (bits + levels - 1) / levels > 30) {
+                throw new NumberFormatException(addressBits + ":" + basePageShift + ":" + levels);
+            }
+            int[] split = new int[levels];
+            for (int l = 0; l < levels; l++) {
+                split[l] = bits / levels + (l >= levels - bits % levels ? 1 : 0);
+            }
+            int shift = basePageShift;
+            int walked = levels;
+            // fold levels into the page until it reaches the huge page size
+            while (hugePageShift > 0 && shift < hugePageShift && walked > 2) {
+                shift += split[--walked];
+            }
+            // page keys carry a 12 bit asid above the page num
+            if ((hugePageShift > 0 && shift != hugePageShift) || addressBits - shift > 50) {
+                throw new NumberFormatException(addressBits + ":" + basePageShift + ":" + levels + ":" + hugePageShift);
+            }
+            this.addressBits = addressBits;
+            this.addressMask = addressBits == 64 ? -1L : (1L << addressBits) - 1;
+            this.basePageShift = basePageShift;
+            this.pageShift = shift;
+            this.pageBits = addressBits - shift;
+            this.levelBits = Arrays.copyOf(split, walked);
+            this.entryBytes = addressBits > 32 ? 8 : 4;
+        }
+
+        // parse <address bits>:<page size>:<levels>[:<huge page size>], sizes may end in K, M or G
+        public static Geometry parse(String arg) {
+            String[] parts = arg.split(":");
+            if (parts.length < 3 || parts.length > 4) {
+                throw new NumberFormatException(arg);
+            }
+            return new Geometry(Integer.parseInt(parts[0]), sizeShift(parts[1]), Integer.parseInt(parts[2]),
+                    parts.length == 4 ? sizeShift(parts[3]) : 0);
+        }
+
+        // log2 of a power of two size
+        private static int sizeShift(String size) {
+            long bytes = parseCount(size);
+            if (Long.bitCount(bytes) != 1) {
+                throw new NumberFormatException(size);
+            }
+            return Long.numberOfTrailingZeros(bytes);
+        }
+
+        public int levels() {
+            return levelBits.length;
+        }
+
+        public int leafBits() {
+            return levelBits[levelBits.length - 1];
+        }
+
+        // page num tagged with its process's asid, a key no other process's page shares
+        public long key(int asid, long pageNum) {
+            return ((long) asid << pageBits) | pageNum;
+        }
+
+        public int asid(long key) {
+            return (int) (key >>> pageBits);
+        }
+
+        public long pageNum(long key) {
+            return key & ((1L << pageBits) - 1);
+        }
+
+        // calculate size of a fully populated page table, every level's tables times their entries
+        public long fullSize() {
+            long tables = 1;
+            long size = 0;
+            for (int bits : levelBits) {
+                size += tables * (1L << bits) * entryBytes;
+                tables <<= bits;
+            }
+            return size;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder split = new StringBuilder();
+            for (int bits : levelBits) {
+                split.append(split.length() == 0 ? "" : "/").append(bits);
+            }
+            String pages = (1L << pageShift) + " byte pages";
+            if (pageShift != basePageShift) {
+                pages = (1L << pageShift) + " byte huge pages over " + (1L << basePageShift) + " byte base pages";
+            }
+            return String.format("%d bit addresses, %s, %d levels walked (%s bits)", addressBits, pages, levels(),
+                    split);
+        }
+    }
+
+    // one simulation run, a page table and frames driven by one algo, with its own stats
+    // a per process run keeps a page table and stats for each process instead, all sharing the frames
+    public static class Simulation {
+        public static final long DEFAULT_TAU = 10000;
+
+        final String algo;
+        final int numFrames;
+        // one policy for global replacement, or one per process for local, each over its own range of frames
+        final ReplacementPolicy[] policies;
+        final int partitionSize;
+        // frames [0, used) of each partition have been handed out, the rest are still free
+        private final int[] partitionUsed;
+        // page key held in each frame, -1 while the frame is free
+        final long[] framePage;
+        // indexed by asid, only asid 0 unless per process
+        final AddressSpace[] spaces;
+        // how addresses are split into page nums and table indexes
+        final Geometry geometry;
+        final boolean perProcess;
+        private final boolean local;
+        private int partitions = 0;
+        // the policy sizes its own resident set, frames it gives back wait on the free stack
+        final boolean variable;
+        private final int[] freeFrames;
+        private int freeCount = 0;
+
+        // caches translations in front of the page walk, null to model none
+        Tlb tlb;
+        // times disk reads and write-backs, with an optional background cleaner, null to only count writes
+        Writeback writeback;
+        // histograms and series of the run, null to keep only the counters below
+        Metrics metrics;
+        // faults until the next one sampled for jfr
+        private int eventCountdown = PageFaultEvent.SAMPLE;
+        // reads pages in along with faults, null for none
+        Prefetcher prefetcher;
+        private final long[] prefetchCandidates = new long[Prefetcher.MAX_CANDIDATES];
+        // frames holding a prefetched page that hasn't been referenced yet, bit i % 64 of word i / 64
+        private final long[] prefetched;
+        // the batch of prefetches that last filled each frame, so a batch never evicts its own pages
+        private int[] prefetchBatch;
+        private int batch = 0;
+
+        // stats
+        long references = 0;
+        long memAccesses = 0;
+        long pageFaults = 0;
+        long writesToDisk = 0;
+        // memory accesses made walking the page table on tlb misses, only counted with a tlb
+        long walkAccesses = 0;
+        // frames holding pages, summed over every reference for the average
+        int resident = 0;
+        int peakResident = 0;
+        long residentSum = 0;
+        long prefetches = 0;
+        long usefulPrefetches = 0;
+        long wastedPrefetches = 0;
+        // the sampled trace the run read, null if it read every reference, and the frames numFrames was scaled from
+        SampledTrace sample;
+        int sampledFrom;
+        // faults of each sampled page and the sum of their squares, for the estimate's variance
+        private PageValues pageFaultCounts;
+        private double pageFaultSquares = 0;
+
+        // nextUse is only needed for opt over the whole trace, and may be shared between opt runs
+        // with a lookahead opt sees only that many references ahead and needs no nextUse
+        public Simulation(String algo, int numFrames, NextUseTable nextUse, int lookahead) {
+            this(algo, numFrames, nextUse, lookahead, null, 0);
+        }
+
+        // scope is null for a single address space, or global or local for a page table per process
+        // local splits the frames evenly between the given number of processes, each replacing only its own pages
+        public Simulation(String algo, int numFrames, NextUseTable nextUse, int lookahead, String scope,
+                int processes) {
+            this.algo = algo;
+            this.numFrames = numFrames;
+            this.geometry = vmsim.geometry;
+            this.framePage = new long[numFrames];
+            Arrays.fill(framePage, -1);
+            this.prefetched = new long[(numFrames + 63) >>> 6];
+            this.perProcess = scope != null;
+            this.local = "local".equals(scope);
+            this.spaces = new AddressSpace[perProcess ? AddressSpace.MAX_ASIDS : 1];
+
+            int count = local ? processes : 1;
+            this.partitionSize = numFrames / count;
+            if (partitionSize == 0) {
+                System.out.println("Invalid number of frames, local replacement needs a frame for every process");
+                System.exit(0);
+            }
+            this.partitionUsed = new int[count];
+            this.policies = new ReplacementPolicy[count];
+            for (int i = 0; i < count; i++) {
+                policies[i] = newPolicy(algo, partitionSize, nextUse, lookahead);
+            }
+            this.variable = policies[0] instanceof ResidentSetPolicy;
+            this.freeFrames = variable ? new int[numFrames] : null;
+        }
+
+        // pick whichever algo we're running, initializing it with number of frames given
+        private static ReplacementPolicy newPolicy(String algo, int numFrames, NextUseTable nextUse, int lookahead) {
+            switch (algo) {
+                case "lru":
+                    return new LRUList(numFrames);
+                case "opt":
+                    return lookahead > 0 ? new LookaheadOPT(numFrames, lookahead) : new OPTHeap(numFrames, nextUse);
+                case "arc":
+                    return new ARC(numFrames);
+                case "2q":
+                    return new TwoQueue(numFrames);
+                case "clockpro":
+                    return new ClockPro(numFrames);
+                case "lfu":
+                    return new LFU(numFrames);
+                case "wsclock":
+                    return new WSClock(numFrames, tau);
+                case "ws":
+                    return new WorkingSet(numFrames, tau);
+                case "pff":
+                    return new PFF(numFrames, tau);
+                default:
+                    return new Clock(numFrames);
+            }
+        }
+
+        // the trace the simulation should read
+        public Trace lookahead(Trace trace) {
+            return policies[0].lookahead(trace);
+        }
+
+        // run every reference in the trace through the simulation
+        public void run(Trace trace) throws IOException {
+            trace = lookahead(trace);
+            if (metrics != null) {
+                metrics.start();
+            }
+            while (trace.next()) {
+                access(trace);
+            }
+            if (metrics != null) {
+                metrics.finish();
+            }
+        }
+
+        // run the trace's current reference through the simulation, its pid only counts in a per process run
+        public void access(Trace trace) {
+            if (!perProcess) {
+                access(0, getPageNum(trace.address()), trace.op());
+                return;
+            }
+            int asid = trace.asid();
+            if (spaces[asid] == null) {
+                addSpace(asid).pid = trace.pid();
+            }
+            access(asid, getPageNum(trace.address()), trace.op());
+        }
+
+        public void access(long pageNum, byte op) {
+            access(0, pageNum, op);
+        }
+
+        // run one reference through the process's page table, the policy decides which page a fault evicts
+        public void access(int asid, long pageNum, byte op) {
+            references++;
+            if (writeback != null) {
+                writeback.reference();
+            }
+            AddressSpace space = spaces[asid];
+            if (space == null) {
+                space = addSpace(asid);
+            }
+            space.references++;
+            PageTable pt = space.pt;
+            ReplacementPolicy policy = policies[space.partition];
+            int base = space.partition * partitionSize;
+
+            // grab PTE
+            int pte = pt.getPTE(pageNum);
+            int prefetchCount = 0;
+            // a policy sizing its own resident set may drop pages first, this one included
+            if (variable && trim((ResidentSetPolicy) policy, (pte & PageTableEntry.V) == 0)) {
+                pte = pt.getPTE(pageNum);
+            }
+
+            // a tlb hit skips the page walk, a miss walks every level of the table
+            long key = geometry.key(asid, pageNum);
+            if (metrics != null) {
+                metrics.reference(key);
+            }
+            boolean translated = false;
+            if (tlb != null) {
+                translated = tlb.lookup(key);
+                if (!translated) {
+                    walkAccesses += pt.levels();
+                }
+            }
+
+            // if valid bit is false, then we have a page fault
+            if ((pte & PageTableEntry.V) == 0) {
+                pageFaults++;
+                space.pageFaults++;
+                boolean sampled = --eventCountdown == 0;
+                if (sampled) {
+                    eventCountdown = PageFaultEvent.SAMPLE;
+                }
+                if (sample != null) {
+                    countPageFault(key);
+                }
+
+                // policies number their frames from 0, so frame is relative to the partition
+                int frame = takeFrame(space, policy, key, -1, sampled);
+                if (metrics != null) {
+                    metrics.fault(base + frame);
+                }
+                if (sampled) {
+                    PageFaultEvent.emit(asid, pageNum, base + frame, references);
+                }
+                if (writeback != null) {
+                    writeback.load(base + frame);
+                }
+                framePage[base + frame] = key;
+                space.residentPages++;
+                resident++;
+                peakResident = Math.max(peakResident, resident);
+                policy.onFault(frame, key);
+                // at this point the frame has been loaded into RAM, set valid bit and frame
+                pte = PageTableEntry.map(pte, base + frame);
+                if (prefetcher != null) {
+                    prefetchCount = prefetcher.onMiss(key, prefetchCandidates);
+                }
+            } else {
+                // page hit, let the algo update its bookkeeping
+                int frame = PageTableEntry.frame(pte);
+                policy.onHit(frame - base);
+                if (metrics != null) {
+                    metrics.hit(frame);
+                }
+                // first reference to a prefetched page, it may lead the prefetcher further
+                if ((prefetched[frame >>> 6] & (1L << frame)) != 0) {
+                    prefetched[frame >>> 6] &= ~(1L << frame);
+                    usefulPrefetches++;
+                    prefetchCount = prefetcher.onPrefetchHit(key, prefetchCandidates);
+                }
+            }
+            // increment mem accesses, the policies keep their own referenced bits
+            pte = calculateMemAccesses(pte, op, space);
+            pt.setPTE(pageNum, pte);
+            if (tlb != null && !translated) {
+                tlb.fill(key);
+            }
+            // the cleaner wakes as pages get dirtied
+            if (writeback != null && (pte & PageTableEntry.D) != 0
+                    && writeback.dirty(PageTableEntry.frame(pte))) {
+                clean();
+            }
+            if (prefetchCount > 0) {
+                prefetch(prefetchCount, space, PageTableEntry.frame(pte));
+            }
+            residentSum += resident;
+        }
+
+        // a frame in the space's partition for page key, relative to the partition
+        // a free frame if there is one, otherwise the policy picks a frame to evict
+        // a prefetch, for the fault that loaded demand, only evicts when the policy can name its victim without
+        // choosing it, and never the demand page or a page the same fault prefetched, else this returns -1
+        private int takeFrame(AddressSpace space, ReplacementPolicy policy, long key, int demand, boolean sampled) {
+            int base = space.partition * partitionSize;
+            if (freeCount > 0) {
+                return freeFrames[--freeCount];
+            }
+            if (partitionUsed[space.partition] < partitionSize) {
+                return partitionUsed[space.partition]++;
+            }
+            if (demand != -1) {
+                int victim = policy.peekVictim(key);
+                if (victim == -1 || base + victim == demand || prefetchBatch[base + victim] == batch) {
+                    return -1;
+                }
+            }
+            int frame = policy.selectVictim(key);
+            evict(base + frame, sampled);
+            return frame;
+        }
+
+        // read in the first count prefetch candidates that belong to the space and aren't resident yet
+        // stops early rather than evict demand, the frame of the page that was just referenced
+        private void prefetch(int count, AddressSpace space, int demand) {
+            ReplacementPolicy policy = policies[space.partition];
+            int base = space.partition * partitionSize;
+            if (prefetchBatch == null) {
+                prefetchBatch = new int[numFrames];
+            }
+            batch++;
+            for (int i = 0; i < count; i++) {
+                long key = prefetchCandidates[i];
+                if (key < 0 || geometry.asid(key) != space.asid) {
+                    continue;
+                }
+                long pageNum = geometry.pageNum(key);
+                int pte = space.pt.getPTE(pageNum);
+                if ((pte & PageTableEntry.V) != 0) {
+                    continue;
+                }
+                int frame = takeFrame(space, policy, key, demand, false);
+                if (frame == -1) {
+                    return;
+                }
+                framePage[base + frame] = key;
+                space.residentPages++;
+                resident++;
+                peakResident = Math.max(peakResident, resident);
+                policy.onPrefetch(frame, key);
+                // resident but not referenced yet
+                space.pt.setPTE(pageNum, PageTableEntry.map(pte, base + frame));
+                prefetched[(base + frame) >>> 6] |= 1L << (base + frame);
+                prefetchBatch[base + frame] = batch;
+                prefetches++;
+                if (writeback != null) {
+                    writeback.prefetch(base + frame);
+                }
+                if (metrics != null) {
+                    metrics.prefetch(base + frame);
+                }
+            }
+        }
+
+        // percentage of prefetched pages referenced before being evicted
+        public double prefetchAccuracy() {
+            return prefetches == 0 ? 0.0 : 100.0 * usefulPrefetches / prefetches;
+        }
+
+        // percentage of the misses there would have been that prefetching turned into hits
+        public double prefetchCoverage() {
+            return usefulPrefetches + pageFaults == 0 ? 0.0 : 100.0 * usefulPrefetches / (usefulPrefetches + pageFaults);
+        }
+
+        // (f + 1)^2 - f^2 for the page's fault count f so far
+        private void countPageFault(long key) {
+            if (pageFaultCounts == null) {
+                pageFaultCounts = new PageValues();
+            }
+            long before = Math.max(0, pageFaultCounts.get(key));
+            pageFaultCounts.put(key, before + 1);
+            pageFaultSquares += 2 * before + 1;
+        }
+
+        // faults over the whole trace, the sample's faults scaled up by the rate, which like SHARDS_adj
+        // doesn't let a sample that missed or caught a hot page skew the miss ratio
+        public long estimatedFaults() {
+            return Math.round(pageFaults / sample.rate());
+        }
+
+        // half width of a 95% interval around estimatedFaults, the sum of f / rate over the sampled pages for a
+        // page's faults f, each page in the sample independently with probability rate, so its variance is
+        // (1 - rate) / rate times the sum of f^2 over every page, and that sum is estimated by the sampled pages'
+        // sum of f^2 over rate, giving (1 - rate) / rate^2 times the sampled sum
+        public long faultBound() {
+            double rate = sample.rate();
+            return Math.round(1.96 * Math.sqrt((1 - rate) / (rate * rate) * pageFaultSquares));
+        }
+
+        public long estimatedWrites() {
+            return Math.round(writesToDisk / sample.rate());
+        }
+
+        // prefetched pages still resident and never referenced
+        public long unusedPrefetches() {
+            long unused = 0;
+            for (long word : prefetched) {
+                unused += Long.bitCount(word);
+            }
+            return unused;
+        }
+
+        // evict the frames the policy gives back before this reference, returning true if there were any
+        private boolean trim(ResidentSetPolicy policy, boolean fault) {
+            boolean trimmed = false;
+            int frame;
+            while ((frame = policy.trim(references, fault)) != -1) {
+                evict(frame, false);
+                framePage[frame] = -1;
+                freeFrames[freeCount++] = frame;
+                trimmed = true;
+            }
+            return trimmed;
+        }
+
+        // frames holding pages over the run, per reference
+        public double averageResident() {
+            return references == 0 ? 0.0 : (double) residentSum / references;
+        }
+
+        // remove the page in frame from RAM, writing it to disk if dirty, sampled evictions go to jfr
+        private void evict(int frame, boolean sampled) {
+            long key = framePage[frame];
+            AddressSpace owner = spaces[geometry.asid(key)];
+            long victim = geometry.pageNum(key);
+            int victimPte = owner.pt.getPTE(victim);
+
+            // set valid bit to false as its been removed from RAM
+            owner.pt.setPTE(victim, victimPte & ~PageTableEntry.V);
+            owner.residentPages--;
+            resident--;
+            // shoot down the translation along with the page
+            if (tlb != null) {
+                tlb.invalidate(key);
+            }
+
+            // if the dirty bit of the associated pte is set, write to disk
+            if ((victimPte & PageTableEntry.D) != 0) {
+                writesToDisk++;
+                owner.writesToDisk++;
+            }
+            if (writeback != null) {
+                writeback.evict(frame, (victimPte & PageTableEntry.D) != 0);
+            }
+            if (metrics != null) {
+                metrics.evict(frame);
+            }
+            if ((prefetched[frame >>> 6] & (1L << frame)) != 0) {
+                prefetched[frame >>> 6] &= ~(1L << frame);
+                wastedPrefetches++;
+            }
+            if (sampled) {
+                EvictionEvent.emit(owner.asid, victim, frame, (victimPte & PageTableEntry.D) != 0);
+            }
+        }
+
+        // background cleaner, write back a batch of the longest dirty pages, which stay resident but clean
+        private void clean() {
+            int pages = writeback.takeBatch();
+            for (int i = 0; i < pages; i++) {
+                long key = framePage[writeback.batchFrames[i]];
+                AddressSpace owner = spaces[geometry.asid(key)];
+                long pageNum = geometry.pageNum(key);
+                owner.pt.setPTE(pageNum, owner.pt.getPTE(pageNum) & ~PageTableEntry.D);
+                writesToDisk++;
+                owner.writesToDisk++;
+                writeback.batchKeys[i] = key;
+            }
+            writeback.writeBatch(pages);
+        }
+
+        // first reference of a process, a single address space keeps the flat two level table
+        private AddressSpace addSpace(int asid) {
+            int partition = local ? partitions++ : 0;
+            if (partition == policies.length) {
+                throw new IllegalStateException("More processes than counted for local replacement");
+            }
+            PageTable pt;
+            if (geometry.levels() > 2) {
+                pt = new MultiLevelPageTable(geometry);
+            } else if (perProcess) {
+                pt = new SparsePageTable(geometry);
+            } else {
+                pt = new TwoLevelPageTable(geometry);
+            }
+            AddressSpace space = new AddressSpace(asid, pt, partition);
+            spaces[asid] = space;
+            return space;
+        }
+
+        // page table leaves allocated by every process
+        public int leafCount() {
+            int leaves = 0;
+            for (AddressSpace space : spaces) {
+                if (space != null) {
+                    leaves += space.pt.leafCount();
+                }
+            }
+            return leaves;
+        }
+
+        // bytes of page table allocated by every process
+        public long residentSize() {
+            long size = 0;
+            for (AddressSpace space : spaces) {
+                if (space != null) {
+                    size += space.pt.residentSize();
+                }
+            }
+            return size;
+        }
+
+        // calculate number of memory accesses made, returning pte with the dirty bit set for writes
+        private int calculateMemAccesses(int pte, byte op, AddressSpace space) {
+            // if instruction is a fetch or load increment mem accesses by 1
+            if (op == 'I' || op == 'L') {
+                memAccesses++;
+                space.memAccesses++;
+                // if a store, increment mem accesses by 1 and set dirty bit to true
+            } else if (op == 'S') {
+                memAccesses++;
+                space.memAccesses++;
+                pte |= PageTableEntry.D;
+                // else we have a modify (read and write), increment mem accesses by 2 and set
+                // dirty bit to true
+            } else {
+                memAccesses += 2;
+                space.memAccesses += 2;
+                pte |= PageTableEntry.D;
+            }
+            return pte;
+        }
+    }
+
+    // tlb in front of the page walk, a set associative first level and an optional second level it refills from
+    // entries are tagged with the asid in the page key, so switching processes needs no flush
+    public static class Tlb {
+        final TlbLevel l1;
+        final TlbLevel l2;
+
+        // stats
+        long lookups = 0;
+        long l1Hits = 0;
+        long l2Hits = 0;
+        long walks = 0;
+
+        public Tlb(TlbLevel l1, TlbLevel l2) {
+            this.l1 = l1;
+            this.l2 = l2;
+        }
+
+        // parse <entries>:<ways>[:lru|random][,<entries>:<ways>[:lru|random]]
+        public static Tlb parse(String arg) {
+            String[] levels = arg.split(",");
+            if (levels.length > 2) {
+                throw new NumberFormatException(arg);
+            }
+            return new Tlb(TlbLevel.parse(levels[0]), levels.length == 2 ? TlbLevel.parse(levels[1]) : null);
+        }
+
+        // true if the translation for key is cached, refilling the first level from the second
+        public boolean lookup(long key) {
+            lookups++;
+            if (l1.lookup(key)) {
+                l1Hits++;
+                return true;
+            }
+            if (l2 != null && l2.lookup(key)) {
+                l2Hits++;
+                l1.insert(key);
+                return true;
+            }
+            walks++;
+            return false;
+        }
+
+        // cache the translation a page walk found
+        public void fill(long key) {
+            if (l2 != null) {
+                l2.insert(key);
+            }
+            l1.insert(key);
+        }
+
+        public void invalidate(long key) {
+            l1.invalidate(key);
+            if (l2 != null) {
+                l2.invalidate(key);
+            }
+        }
+
+        // percentage of lookups that hit in either level
+        public double hitRate() {
+            return lookups == 0 ? 0.0 : 100.0 * (l1Hits + l2Hits) / lookups;
+        }
+    }
+
+    // one level of a tlb, entries split into sets of ways, a page key maps to the set picked by its low bits
+    public static class TlbLevel {
+        private static final long EMPTY = -1;
+
+        private final int ways;
+        private final int setMask;
+        private final boolean random;
+        // key cached in each way of each set, set s holds entries [s * ways, (s + 1) * ways)
+        private final long[] tags;
+        // when each entry was last used, for lru
+        private final long[] lastUse;
+        private long clock = 0;
+        // xorshift state, for random
+        private long seed = 0x9E3779B97F4A7C15L;
+
+        public TlbLevel(int entries, int ways, boolean random) {
+            int sets = entries / ways;
+            // sets are indexed by bits of the page num
+            if (ways < 1 || sets < 1 || sets * ways != entries || Integer.bitCount(sets) != 1) {
+                throw new NumberFormatException(entries + ":" + ways);
+            }
+            this.ways = ways;
+            this.setMask = sets - 1;
+            this.random = random;
+            this.tags = new long[entries];
+            this.lastUse = new long[entries];
+            Arrays.fill(tags, EMPTY);
+        }
+
+        // parse <entries>:<ways>[:lru|random]
+        public static TlbLevel parse(String arg) {
+            String[] parts = arg.split(":");
+            if (parts.length < 2 || parts.length > 3 || (parts.length == 3 && !parts[2].equals("lru")
+                    && !parts[2].equals("random"))) {
+                throw new NumberFormatException(arg);
+            }
+            return new TlbLevel(Integer.parseInt(parts[0]), Integer.parseInt(parts[1]),
+                    parts.length == 3 && parts[2].equals("random"));
+        }
+
+        public boolean lookup(long key) {
+            int entry = find(key);
+            if (entry == -1) {
+                return false;
+            }
+            lastUse[entry] = ++clock;
+            return true;
+        }
+
+        // cache key, taking an empty way of its set or else replacing the lru or a random one
+        public void insert(long key) {
+            int base = ((int) key & setMask) * ways;
+            int victim = -1;
+            for (int w = base; w < base + ways; w++) {
+                if (tags[w] == EMPTY) {
+                    victim = w;
+                    break;
+                }
+            }
+            if (victim == -1) {
+                if (random) {
+                    seed ^= seed << 13;
+                    seed ^= seed >>> 7;
+                    seed ^= seed << 17;
+                    victim = base + (int) ((seed >>> 1) % ways);
+                } else {
+                    victim = base;
+                    for (int w = base + 1; w < base + ways; w++) {
+                        if (lastUse[w] < lastUse[victim]) {
+                            victim = w;
+                        }
+                    }
+                }
+            }
+            tags[victim] = key;
+            lastUse[victim] = ++clock;
+        }
+
+        public void invalidate(long key) {
+            int entry = find(key);
+            if (entry != -1) {
+                tags[entry] = EMPTY;
+            }
+        }
+
+        // entry caching key, -1 if none
+        private int find(long key) {
+            int base = ((int) key & setMask) * ways;
+            for (int w = base; w < base + ways; w++) {
+                if (tags[w] == key) {
+                    return w;
+                }
+            }
+            return -1;
+        }
+    }
+
+    // per run metrics registry, every value and histogram registered by name in output order
+    // the histograms and working set series are updated in place from the simulation, without allocating
+    // values are only read once the run is over
+    public static class Metrics {
+        public static final long DEFAULT_WINDOW = 10000;
+
+        final Simulation sim;
+        final Map<String, Supplier<Number>> values = new LinkedHashMap<>();
+        final Map<String, Histogram> histograms = new LinkedHashMap<>();
+        // references between consecutive faults
+        final Histogram faultInterarrival = histogram("fault_interarrival");
+        // references a victim spent resident, and since its last reference
+        final Histogram evictionAge = histogram("eviction_age");
+        final Histogram evictionIdle = histogram("eviction_idle");
+        // working set, distinct pages referenced in each window of this many references
+        final long window;
+
+        // when the page in each frame was loaded and last referenced
+        private final long[] loadTime;
+        private final long[] lastUse;
+        // window each page key was last referenced in, -1 if never
+        private final PageValues lastWindow = new PageValues();
+        // end, working set size and faults of every window so far, three longs each
+        private long[] series = new long[3 * 64];
+        private int samples = 0;
+        private long time = 0;
+        private long lastFault = -1;
+        private long windowIndex = 0;
+        private long windowPages = 0;
+        private long windowFaults = 0;
+        private long startNanos;
+        private long elapsedNanos;
+
+        // the simulation's tlb and write-back model are only registered if set before this
+        public Metrics(Simulation sim, long window) {
+            this.sim = sim;
+            this.window = window;
+            this.loadTime = new long[sim.numFrames];
+            this.lastUse = new long[sim.numFrames];
+            values.put("references", () -> sim.references);
+            values.put("memory_accesses", () -> sim.memAccesses);
+            values.put("page_faults", () -> sim.pageFaults);
+            values.put("writes_to_disk", () -> sim.writesToDisk);
+            values.put("resident_page_table_bytes", sim::residentSize);
+            values.put("average_resident_set", sim::averageResident);
+            values.put("ns_per_reference", () -> time == 0 ? 0.0 : (double) elapsedNanos / time);
+            if (sim.tlb != null) {
+                values.put("tlb_hit_rate", sim.tlb::hitRate);
+                values.put("page_walk_accesses", () -> sim.walkAccesses);
+            }
+            if (sim.prefetcher != null) {
+                values.put("prefetched_pages", () -> sim.prefetches);
+                values.put("prefetch_accuracy", sim::prefetchAccuracy);
+                values.put("prefetch_coverage", sim::prefetchCoverage);
+                values.put("wasted_prefetches", () -> sim.wastedPrefetches);
+            }
+            if (sim.sample != null) {
+                values.put("sample_rate", sim.sample::rate);
+                values.put("estimated_page_faults", sim::estimatedFaults);
+                values.put("estimated_page_faults_bound", sim::faultBound);
+                values.put("estimated_writes_to_disk", sim::estimatedWrites);
+            }
+            if (sim.writeback != null) {
+                values.put("simulated_ns", () -> sim.writeback.now);
+                values.put("stall_ns", sim.writeback::stall);
+                values.put("sync_write_backs", () -> sim.writeback.syncWrites);
+                values.put("cleaned_pages", () -> sim.writeback.cleanedPages);
+            }
+        }
+
+        public Histogram histogram(String name) {
+            Histogram histogram = new Histogram();
+            histograms.put(name, histogram);
+            return histogram;
+        }
+
+        public void start() {
+            startNanos = System.nanoTime();
+        }
+
+        // close the last, partial window and stop the clock
+        public void finish() {
+            elapsedNanos = System.nanoTime() - startNanos;
+            if (windowPages > 0) {
+                closeWindow();
+            }
+        }
+
+        // a reference to the page with key, before any fault or hit it causes
+        public void reference(long key) {
+            if (time > 0 && time % window == 0) {
+                closeWindow();
+            }
+            time++;
+            if (lastWindow.get(key) != windowIndex) {
+                lastWindow.put(key, windowIndex);
+                windowPages++;
+            }
+        }
+
+        public void fault(int frame) {
+            if (lastFault != -1) {
+                faultInterarrival.record(time - lastFault);
+            }
+            lastFault = time;
+            windowFaults++;
+            loadTime[frame] = time;
+            lastUse[frame] = time;
+        }
+
+        public void hit(int frame) {
+            lastUse[frame] = time;
+        }
+
+        // a page was read into frame ahead of any reference to it
+        public void prefetch(int frame) {
+            loadTime[frame] = time;
+            lastUse[frame] = time;
+        }
+
+        public void evict(int frame) {
+            evictionAge.record(time - loadTime[frame]);
+            evictionIdle.record(time - lastUse[frame]);
+        }
+
+        private void closeWindow() {
+            if (samples * 3 == series.length) {
+                series = Arrays.copyOf(series, series.length * 2);
+            }
+            series[samples * 3] = time;
+            series[samples * 3 + 1] = windowPages;
+            series[samples * 3 + 2] = windowFaults;
+            samples++;
+            windowIndex++;
+            windowPages = 0;
+            windowFaults = 0;
+        }
+
+        // one json object, followed by a comma if more follow in the array
+        public void writeJson(PrintStream out, boolean more) {
+            out.printf("  {\n    \"algorithm\": \"%s\",\n    \"frames\": %d,\n", sim.algo, sim.numFrames);
+            for (Map.Entry<String, Supplier<Number>> value : values.entrySet()) {
+                out.printf("    \"%s\": %s,\n", value.getKey(), format(value.getValue().get()));
+            }
+            out.println("    \"histograms\": {");
+            int h = 0;
+            for (Map.Entry<String, Histogram> entry : histograms.entrySet()) {
+                Histogram histogram = entry.getValue();
+                out.printf("      \"%s\": {\"count\": %d, \"mean\": %.3f, \"max\": %d, \"p50\": %d, \"p90\": %d, "
+                        + "\"p99\": %d, \"p999\": %d, \"buckets\": [", entry.getKey(), histogram.count(),
+                        histogram.mean(), histogram.max(), histogram.percentile(50), histogram.percentile(90),
+                        histogram.percentile(99), histogram.percentile(99.9));
+                // only buckets holding values, as [highest value in the bucket, count]
+                String separator = "";
+                for (int b = 0; b < histogram.buckets(); b++) {
+                    if (histogram.countAt(b) != 0) {
+                        out.printf("%s[%d, %d]", separator, Histogram.highestValue(b), histogram.countAt(b));
+                        separator = ", ";
+                    }
+                }
+                out.println(++h < histograms.size() ? "]}," : "]}");
+            }
+            out.println("    },");
+            out.printf("    \"working_set\": {\"window\": %d, \"samples\": [", window);
+            for (int i = 0; i < samples; i++) {
+                out.printf("%s[%d, %d, %d]", i == 0 ? "" : ", ", series[i * 3], series[i * 3 + 1], series[i * 3 + 2]);
+            }
+            out.println("]}");
+            out.println(more ? "  }," : "  }");
+        }
+
+        // one row per value, per histogram statistic and bucket and per working set sample
+        public void writeCsv(PrintStream out) {
+            String run = sim.algo + "," + sim.numFrames + ",";
+            for (Map.Entry<String, Supplier<Number>> value : values.entrySet()) {
+                out.println(run + value.getKey() + "," + format(value.getValue().get()));
+            }
+            for (Map.Entry<String, Histogram> entry : histograms.entrySet()) {
+                String name = run + entry.getKey();
+                Histogram histogram = entry.getValue();
+                out.println(name + ".count," + histogram.count());
+                out.printf("%s.mean,%.3f\n", name, histogram.mean());
+                out.println(name + ".max," + histogram.max());
+                out.println(name + ".p50," + histogram.percentile(50));
+                out.println(name + ".p90," + histogram.percentile(90));
+                out.println(name + ".p99," + histogram.percentile(99));
+                out.println(name + ".p999," + histogram.percentile(99.9));
+                for (int b = 0; b < histogram.buckets(); b++) {
+                    if (histogram.countAt(b) != 0) {
+                        out.println(name + ".le_" + Histogram.highestValue(b) + "," + histogram.countAt(b));
+                    }
+                }
+            }
+            for (int i = 0; i < samples; i++) {
+                out.println(run + "working_set." + series[i * 3] + "," + series[i * 3 + 1]);
+                out.println(run + "window_faults." + series[i * 3] + "," + series[i * 3 + 2]);
+            }
+        }
+
+        private static String format(Number value) {
+            return value instanceof Double ? String.format("%.3f", value.doubleValue()) : value.toString();
+        }
+    }
+
+    // log linear histogram of non negative longs, like HdrHistogram with 2 significant digits
+    // values below 128 get a bucket each, after that every power of two is split into 64 buckets,
+    // so a value is off by less than 1/64 of itself and the whole long range fits in under 4K buckets
+    public static class Histogram {
+        private static final int SUB_BITS = 6;
+
+        private final long[] counts = new long[index(Long.MAX_VALUE) + 1];
+        private long count = 0;
+        private long sum = 0;
+        private long max = 0;
+
+        public void record(long value) {
+            counts[index(value)]++;
+            count++;
+            sum += value;
+            max = Math.max(max, value);
+        }
+
+        // bucket of value, its top bits past the leading one pick the bucket within its power of two
+        static int index(long value) {
+            int shift = Math.max(0, 63 - Long.numberOfLeadingZeros(value) - SUB_BITS);
+            return (shift << SUB_BITS) + (int) (value >>> shift);
+        }
+
+        // highest value that lands in bucket
+        public static long highestValue(int bucket) {
+            if (bucket < 2 << SUB_BITS) {
+                return bucket;
+            }
+            int shift = (bucket >>> SUB_BITS) - 1;
+            long sub = bucket - ((long) shift << SUB_BITS);
+            return ((sub + 1) << shift) - 1;
+        }
+
+        // lowest value that lands in bucket
+        public static long lowestValue(int bucket) {
+            return bucket == 0 ? 0 : highestValue(bucket - 1) + 1;
+        }
+
+        public int buckets() {
+            return counts.length;
+        }
+
+        public long countAt(int bucket) {
+            return counts[bucket];
+        }
+
+        public long count() {
+            return count;
+        }
+
+        public double mean() {
+            return count == 0 ? 0.0 : (double) sum / count;
+        }
+
+        public long max() {
+            return max;
+        }
+
+        // smallest bucket value at or below which percent of the values lie, capped at the exact max
+        public long percentile(double percent) {
+            long rank = (long) Math.ceil(count * percent / 100);
+            long seen = 0;
+            for (int b = 0; b < counts.length; b++) {
+                seen += counts[b];
+                if (seen >= rank && seen > 0) {
+                    return Math.min(highestValue(b), max);
+                }
+            }
+            return 0;
+        }
+    }
+
+    // jfr event for a sampled page fault, one in every SAMPLE faults of a run
+    @Name("vmsim.PageFault")
+    @Label("Page Fault")
+    @Category("vmsim")
+    @StackTrace(false)
+    public static class PageFaultEvent extends Event {
+        static final int SAMPLE = 1 << 10;
+
+        @Label("ASID")
+        int asid;
+        @Label("Page Number")
+        long pageNum;
+        @Label("Frame")
+        int frame;
+        @Label("References")
+        long references;
+
+        private static final EventType TYPE = EventType.getEventType(PageFaultEvent.class);
+
+        // the event is only built while a recording has it enabled, checked before allocating it
+        static void emit(int asid, long pageNum, int frame, long references) {
+            if (!TYPE.isEnabled()) {
+                return;
+            }
+            PageFaultEvent event = new PageFaultEvent();
+            if (event.shouldCommit()) {
+                event.asid = asid;
+                event.pageNum = pageNum;
+                event.frame = frame;
+                event.references = references;
+                event.commit();
+            }
+        }
+    }
+
+    // jfr event for the eviction a sampled page fault made
+    @Name("vmsim.Eviction")
+    @Label("Eviction")
+    @Category("vmsim")
+    @StackTrace(false)
+    public static class EvictionEvent extends Event {
+        @Label("ASID")
+        int asid;
+        @Label("Page Number")
+        long pageNum;
+        @Label("Frame")
+        int frame;
+        @Label("Dirty")
+        boolean dirty;
+
+        private static final EventType TYPE = EventType.getEventType(EvictionEvent.class);
+
+        static void emit(int asid, long pageNum, int frame, boolean dirty) {
+            if (!TYPE.isEnabled()) {
+                return;
+            }
+            EvictionEvent event = new EvictionEvent();
+            if (event.shouldCommit()) {
+                event.asid = asid;
+                event.pageNum = pageNum;
+                event.frame = frame;
+                event.dirty = dirty;
+                event.commit();
+            }
+        }
+    }
+
+    // disk that faults read pages from and write-backs write them to, serving one request at a time in order
+    // a request costs a fixed latency plus the transfer time of its pages, queued behind any request in service
+    public static class Disk {
+        // ns
+        final long latency;
+        // bytes per second
+        final long bandwidth;
+        final int pageBytes;
+        // when the request in service completes, the disk is idle from then on
+        private long busyUntil = 0;
+
+        public Disk(long latency, long bandwidth, int pageBytes) {
+            this.latency = latency;
+            this.bandwidth = bandwidth;
+            this.pageBytes = pageBytes;
+        }
+
+        // issue a request for a run of adjacent pages at time now, returning when it completes
+        public long submit(long now, int pages) {
+            busyUntil = Math.max(now, busyUntil) + cost(pages);
+            return busyUntil;
+        }
+
+        // time a request for a run of adjacent pages spends in service
+        public long cost(int pages) {
+            return latency + (long) ((double) pages * pageBytes * 1e9 / bandwidth);
+        }
+
+        public boolean idle(long now) {
+            return busyUntil <= now;
+        }
+    }
+
+    // page-out pipeline timing a run, every reference takes the reference time and faults stall on the disk
+    // a dirty victim is written back synchronously before its frame is read into, unless a background cleaner
+    // already wrote it, which happens in batches of the longest dirty pages once too many frames are dirty
+    // the cleaner only issues while the disk is idle, merging runs of adjacent pages into one write
+    public static class Writeback {
+        final Disk disk;
+        final long referenceTime;
+        // the cleaner wakes once more than dirtyLimit frames are dirty, batch 0 for no cleaner
+        final int dirtyLimit;
+        final int batch;
+        // dirty frames, the longest dirty at the head
+        private final NodeList dirtyList;
+        private final boolean[] listed;
+        // written by the cleaner and not dirtied since
+        private final boolean[] cleaned;
+        // frames and page keys of the batch being cleaned, keys filled in by the simulation
+        final int[] batchFrames;
+        final long[] batchKeys;
+
+        // stats, times in ns
+        long now = 0;
+        long readStall = 0;
+        long writeStall = 0;
+        long syncWrites = 0;
+        long batches = 0;
+        long cleanedPages = 0;
+        long cleanerWrites = 0;
+        long hidden = 0;
+        long hiddenTime = 0;
+        long redirtied = 0;
+
+        public Writeback(Disk disk, long referenceTime, int dirtyPercent, int batch, int numFrames) {
+            this.disk = disk;
+            this.referenceTime = referenceTime;
+            this.dirtyLimit = (int) ((long) numFrames * dirtyPercent / 100);
+            this.batch = batch;
+            this.dirtyList = new NodeList(numFrames);
+            this.listed = new boolean[numFrames];
+            this.cleaned = new boolean[numFrames];
+            this.batchFrames = new int[batch];
+            this.batchKeys = new long[batch];
+        }
+
+        // parse -b <latency>:<bandwidth>[:<reference time>] and -c <dirty percent>:<batch>, either may be null
+        public static Writeback parse(String diskArg, String cleanerArg, int numFrames) {
+            String[] d = (diskArg == null ? "100us:500M:10ns" : diskArg).split(":");
+            if (d.length < 2 || d.length > 3) {
+                throw new NumberFormatException(diskArg);
+            }
+            Disk disk = new Disk(parseTime(d[0]), parseCount(d[1]), 1 << geometry.pageShift);
+            long referenceTime = d.length == 3 ? parseTime(d[2]) : 10;
+            int dirtyPercent = 0;
+            int batch = 0;
+            if (cleanerArg != null) {
+                String[] c = cleanerArg.split(":");
+                if (c.length != 2) {
+                    throw new NumberFormatException(cleanerArg);
+                }
+                dirtyPercent = Integer.parseInt(c[0]);
+                batch = Integer.parseInt(c[1]);
+                if (dirtyPercent < 0 || dirtyPercent > 100 || batch < 1) {
+                    throw new NumberFormatException(cleanerArg);
+                }
+            }
+            return new Writeback(disk, referenceTime, dirtyPercent, batch, numFrames);
+        }
+
+        public void reference() {
+            now += referenceTime;
+        }
+
+        // the page in frame is being evicted, stalling to write it back if dirty
+        public void evict(int frame, boolean dirty) {
+            if (listed[frame]) {
+                dirtyList.remove(frame);
+                listed[frame] = false;
+            }
+            if (dirty) {
+                syncWrites++;
+                long done = disk.submit(now, 1);
+                writeStall += done - now;
+                now = done;
+            } else if (cleaned[frame]) {
+                // the cleaner took this write off the fault path
+                hidden++;
+                hiddenTime += disk.cost(1);
+            }
+            cleaned[frame] = false;
+        }
+
+        // a prefetch reads a page into frame in the background
+        public void prefetch(int frame) {
+            disk.submit(now, 1);
+            cleaned[frame] = false;
+        }
+
+        // a fault reads its page into frame, stalling until the read completes
+        public void load(int frame) {
+            long done = disk.submit(now, 1);
+            readStall += done - now;
+            now = done;
+        }
+
+        // the page in frame is dirty, returning true if the cleaner should write a batch
+        public boolean dirty(int frame) {
+            if (!listed[frame]) {
+                listed[frame] = true;
+                dirtyList.addTail(frame);
+                if (cleaned[frame]) {
+                    // its earlier background write was wasted
+                    redirtied++;
+                    cleaned[frame] = false;
+                }
+            }
+            return batch > 0 && dirtyList.size() > dirtyLimit && disk.idle(now);
+        }
+
+        // take the longest dirty frames off the dirty list into batchFrames, returning how many
+        public int takeBatch() {
+            int pages = Math.min(batch, dirtyList.size());
+            for (int i = 0; i < pages; i++) {
+                int frame = dirtyList.removeHead();
+                listed[frame] = false;
+                cleaned[frame] = true;
+                batchFrames[i] = frame;
+            }
+            return pages;
+        }
+
+        // issue the batch's writes in the background, one per run of adjacent page keys
+        public void writeBatch(int pages) {
+            Arrays.sort(batchKeys, 0, pages);
+            batches++;
+            cleanedPages += pages;
+            int run = 1;
+            for (int i = 1; i <= pages; i++) {
+                if (i < pages && batchKeys[i] == batchKeys[i - 1] + 1) {
+                    run++;
+                } else {
+                    disk.submit(now, run);
+                    cleanerWrites++;
+                    run = 1;
+                }
+            }
+        }
+
+        // time faults spent stalled on the disk
+        public long stall() {
+            return readStall + writeStall;
+        }
+
+        // percentage of evictions of written pages the cleaner had already written
+        public double hiddenRate() {
+            return hidden + syncWrites == 0 ? 0.0 : 100.0 * hidden / (hidden + syncWrites);
+        }
+    }
+
+    // one process of a run, with its own page table and stats
+    public static class AddressSpace {
+        // asids are tagged above the page num in page keys, see Geometry.key
+        public static final int MAX_ASIDS = 1 << 12;
+
+        final int asid;
+        // pid the trace gave it, what per process stats show
+        int pid;
+        final PageTable pt;
+        // which policy and range of frames it replaces in, always 0 under global replacement
+        final int partition;
+
+        // stats
+        long references = 0;
+        long memAccesses = 0;
+        long pageFaults = 0;
+        long writesToDisk = 0;
+        int residentPages = 0;
+
+        public AddressSpace(int asid, PageTable pt, int partition) {
+            this.asid = asid;
+            this.pid = asid;
+            this.pt = pt;
+            this.partition = partition;
+        }
+    }
+
+    // a whole trace decoded once into int records, page num << 2 | op code as in the binary format
+    // page nums too wide for an int record, from a wide geometry, are kept in long records instead
+    // never written after it is built, so any number of runs can read it at once through their own readers
+    public static class DecodedTrace {
+        private final boolean wide = geometry.pageBits > BinaryTraceWriter.NARROW_PAGE_BITS;
+        private int[] records;
+        private long[] wideRecords;
+        private int count = 0;
+
+        public DecodedTrace(Trace trace) throws IOException {
+            if (wide) {
+                wideRecords = new long[1 << 16];
+            } else {
+                records = new int[1 << 16];
+            }
+            while (trace.next()) {
+                long record = (getPageNum(trace.address()) << 2) | BinaryTraceWriter.opCode(trace.op());
+                if (wide) {
+                    if (count == wideRecords.length) {
+                        wideRecords = Arrays.copyOf(wideRecords, wideRecords.length * 2);
+                    }
+                    wideRecords[count++] = record;
+                } else {
+                    if (count == records.length) {
+                        records = Arrays.copyOf(records, records.length * 2);
+                    }
+                    records[count++] = (int) record;
+                }
+            }
+        }
+
+        // a fresh reader positioned at the first reference
+        public Trace reader() {
+            return new Trace() {
+                private int i = 0;
+                private long record;
+
+                public boolean next() {
+                    if (i == count) {
+                        return false;
+                    }
+                    record = wide ? wideRecords[i++] : records[i++] & 0xFFFFFFFFL;
+                    return true;
+                }
+
+                public byte op() {
+                    return BinaryTraceWriter.OPS[(int) record & 3];
+                }
+
+                public long address() {
+                    return pageAddress(record >>> 2);
+                }
+
+                public void close() {
+                }
+            };
+        }
+    }
+
+    // replacement algorithm hooks called from the shared simulation loop, which owns the frames
+    // and page table, policies only keep whatever bookkeeping they need per frame
+    public interface ReplacementPolicy {
+        // page in frame was referenced again
+        void onHit(int frame);
+
+        // page was just loaded into frame, either a free frame or the one selectVictim gave up
+        // pages are identified by key, the page num tagged with its process's asid
+        void onFault(int frame, long pageNum);
+
+        // page was read into frame ahead of any reference to it, loaded like a fault unless the policy
+        // tells them apart
+        default void onPrefetch(int frame, long pageNum) {
+            onFault(frame, pageNum);
+        }
+
+        // frames are all full and page num faulted, pick the frame whose page gets evicted for it
+        // the frame leaves the policy's bookkeeping until onFault loads page num into it
+        int selectVictim(long pageNum);
+
+        // the frame selectVictim would pick for page num, changing nothing, or -1 if the policy can't tell
+        // without running its search, prefetches only evict where this names the victim
+        default int peekVictim(long pageNum) {
+            return -1;
+        }
+
+        // the trace the simulation should read, for policies that need to see references before it does
+        default Trace lookahead(Trace trace) {
+            return trace;
+        }
+    }
+
+    // prefetcher on the fault path, it fills candidates with page keys to read in along with the page just referenced
+    // candidates already resident or outside the referencing process are skipped
+    public interface Prefetcher {
+        int MAX_CANDIDATES = 256;
+
+        // page key missed, returning how many candidates were filled
+        int onMiss(long key, long[] candidates);
+
+        // page key was referenced for the first time since it was prefetched, returning how many candidates
+        default int onPrefetchHit(long key, long[] candidates) {
+            return 0;
+        }
+
+        // parse seq[:<max window>], stride[:<degree>] or markov[:<entries>[:<successors>]], a new one each call
+        static Prefetcher parse(String arg) {
+            String[] parts = arg.split(":");
+            int[] values = new int[parts.length - 1];
+            for (int i = 1; i < parts.length; i++) {
+                values[i - 1] = Integer.parseInt(parts[i]);
+                if (values[i - 1] < 1) {
+                    throw new NumberFormatException(arg);
+                }
+            }
+            switch (parts[0]) {
+                case "seq":
+                    if (values.length > 1 || (values.length == 1 && values[0] > MAX_CANDIDATES)) {
+                        throw new NumberFormatException(arg);
+                    }
+                    return new SequentialPrefetcher(values.length == 1 ? values[0] : 32);
+                case "stride":
+                    if (values.length > 1 || (values.length == 1 && values[0] > MAX_CANDIDATES)) {
+                        throw new NumberFormatException(arg);
+                    }
+                    return new StridePrefetcher(values.length == 1 ? values[0] : 4);
+                case "markov":
+                    if (values.length > 2 || (values.length > 0 && Integer.bitCount(values[0]) != 1)
+                            || (values.length == 2 && values[1] > MAX_CANDIDATES)) {
+                        throw new NumberFormatException(arg);
+                    }
+                    return new MarkovPrefetcher(values.length > 0 ? values[0] : 1 << 16,
+                            values.length == 2 ? values[1] : 4);
+                default:
+                    throw new NumberFormatException(arg);
+            }
+        }
+    }
+
+    // sequential read-ahead with an adaptive window, like linux's, kept per process
+    // a miss right after the previous one, or right after the window, starts or doubles the window and reads it
+    // in, any other miss drops it, and a hit on the first page of the window reads the next window in ahead
+    public static class SequentialPrefetcher implements Prefetcher {
+        private static final int INITIAL_WINDOW = 4;
+
+        private final int maxWindow;
+        // per asid, the last miss and the window [start, start + size) read in ahead, size 0 for none
+        private final long[] lastMiss = new long[AddressSpace.MAX_ASIDS];
+        private final long[] start = new long[AddressSpace.MAX_ASIDS];
+        private final int[] size = new int[AddressSpace.MAX_ASIDS];
+
+        public SequentialPrefetcher(int maxWindow) {
+            this.maxWindow = maxWindow;
+            Arrays.fill(lastMiss, -2);
+        }
+
+        public int onMiss(long key, long[] candidates) {
+            int asid = geometry.asid(key);
+            boolean sequential = key == lastMiss[asid] + 1 || (size[asid] > 0 && key == start[asid] + size[asid]);
+            lastMiss[asid] = key;
+            if (!sequential) {
+                size[asid] = 0;
+                return 0;
+            }
+            start[asid] = key + 1;
+            return grow(asid, candidates);
+        }
+
+        // the window's first page was reached, read the next window in before the stream gets there
+        public int onPrefetchHit(long key, long[] candidates) {
+            int asid = geometry.asid(key);
+            if (size[asid] == 0 || key != start[asid]) {
+                return 0;
+            }
+            start[asid] += size[asid];
+            return grow(asid, candidates);
+        }
+
+        private int grow(int asid, long[] candidates) {
+            int window = size[asid] == 0 ? Math.min(INITIAL_WINDOW, maxWindow) : Math.min(size[asid] * 2, maxWindow);
+            size[asid] = window;
+            for (int i = 0; i < window; i++) {
+                candidates[i] = start[asid] + i;
+            }
+            return window;
+        }
+    }
+
+    // stride detector over the miss stream, tracking a few streams at once so interleaved ones don't break it
+    // a miss a stream's stride past its last miss confirms it, twice in a row prefetches degree strides ahead
+    // a miss near a stream's last miss retrains it with the new stride, any other miss replaces the lru stream
+    // first references to prefetched pages count as misses, so a confirmed stream stays degree strides ahead
+    public static class StridePrefetcher implements Prefetcher {
+        private static final int STREAMS = 16;
+        // furthest apart two misses can be to count as a stride, in pages
+        private static final long MAX_STRIDE = 256;
+
+        private final int degree;
+        private final long[] last = new long[STREAMS];
+        private final long[] stride = new long[STREAMS];
+        private final int[] confidence = new int[STREAMS];
+        private final long[] lastUse = new long[STREAMS];
+        private long misses = 0;
+
+        public StridePrefetcher(int degree) {
+            this.degree = degree;
+            Arrays.fill(last, -1);
+        }
+
+        public int onMiss(long key, long[] candidates) {
+            misses++;
+            int match = -1;
+            int near = -1;
+            int lru = 0;
+            for (int s = 0; s < STREAMS; s++) {
+                if (last[s] != -1 && stride[s] != 0 && key - last[s] == stride[s]) {
+                    match = s;
+                    break;
+                }
+                if (last[s] != -1 && Math.abs(key - last[s]) <= MAX_STRIDE
+                        && (near == -1 || Math.abs(key - last[s]) < Math.abs(key - last[near]))) {
+                    near = s;
+                }
+                if (lastUse[s] < lastUse[lru]) {
+                    lru = s;
+                }
+            }
+            if (match != -1) {
+                confidence[match] = Math.min(confidence[match] + 1, 3);
+            } else if (near != -1) {
+                match = near;
+                stride[match] = key - last[match];
+                confidence[match] = 0;
+            } else {
+                match = lru;
+                stride[match] = 0;
+                confidence[match] = 0;
+            }
+            last[match] = key;
+            lastUse[match] = misses;
+            if (confidence[match] < 2) {
+                return 0;
+            }
+            for (int i = 0; i < degree; i++) {
+                candidates[i] = key + stride[match] * (i + 1);
+            }
+            return degree;
+        }
+
+        public int onPrefetchHit(long key, long[] candidates) {
+            return onMiss(key, candidates);
+        }
+    }
+
+    // markov prefetcher (Joseph and Grunwald), a table from a page key to the keys that followed it in the
+    // fault stream, most recent first, which are prefetched when it faults again
+    // first references to prefetched pages count in the stream too, so a correct chain keeps going
+    // the table is direct mapped over primitive arrays, a colliding key replaces the entry
+    public static class MarkovPrefetcher implements Prefetcher {
+        private static final long EMPTY = -1;
+
+        private final int mask;
+        private final int successors;
+        private final long[] tags;
+        // successors of entry e are [e * successors, (e + 1) * successors)
+        private final long[] next;
+        private long previous = EMPTY;
+
+        public MarkovPrefetcher(int entries, int successors) {
+            this.mask = entries - 1;
+            this.successors = successors;
+            this.tags = new long[entries];
+            this.next = new long[entries * successors];
+            Arrays.fill(tags, EMPTY);
+        }
+
+        public int onMiss(long key, long[] candidates) {
+            if (previous != EMPTY) {
+                record(previous, key);
+            }
+            previous = key;
+            int entry = slot(key);
+            if (tags[entry] != key) {
+                return 0;
+            }
+            int count = 0;
+            for (int i = entry * successors; i < (entry + 1) * successors && next[i] != EMPTY; i++) {
+                candidates[count++] = next[i];
+            }
+            return count;
+        }
+
+        public int onPrefetchHit(long key, long[] candidates) {
+            return onMiss(key, candidates);
+        }
+
+        // key followed from in the stream, move it to the front of from's successors
+        private void record(long from, long key) {
+            int entry = slot(from);
+            int first = entry * successors;
+            if (tags[entry] != from) {
+                tags[entry] = from;
+                Arrays.fill(next, first, first + successors, EMPTY);
+            }
+            int i = first;
+            while (i < first + successors - 1 && next[i] != key && next[i] != EMPTY) {
+                i++;
+            }
+            System.arraycopy(next, first, next, first + 1, i - first);
+            next[first] = key;
+        }
+
+        private int slot(long key) {
+            long h = key * 0x9E3779B97F4A7C15L;
+            return (int) (h ^ (h >>> 32)) & mask;
+        }
+    }
+
+    // replacement policy that also sizes the resident set, giving frames back without waiting for a fault
+    // selectVictim is only asked once every frame is resident
+    public interface ResidentSetPolicy extends ReplacementPolicy {
+        // asked before the reference at time is served, fault is whether it misses, until it returns -1
+        // each frame returned leaves the policy's bookkeeping and is evicted, it may be the referenced page's
+        int trim(long time, boolean fault);
+    }
+
+    // stream of references read from a trace
+    public interface Trace extends Closeable {
+        // advance to the next reference, false at end of trace
+        boolean next() throws IOException;
+
+        // op of the current reference, one of I, L, S or M
+        byte op();
+
+        // virtual address of the current reference
+        long address();
+
+        // process of the current reference, 0 unless the trace tags references with a pid
+        // asids are dense, numbered in the order processes first appear
+        default int asid() {
+            return 0;
+        }
+
+        // pid the trace gave the current reference's process, just its asid when the trace has no pids
+        default int pid() {
+            return asid();
+        }
+    }
+
+    // several traces merged into one, the references of trace i belong to process i
+    // lackey traces carry no timestamps, so each reference's index in its own trace stands in for one,
+    // taking the traces in turn, and a trace that ends drops out
+    public static class MergedTrace implements Trace {
+        private final Trace[] traces;
+        // traces not yet at their end, in turn order
+        private final int[] live;
+        private int liveCount;
+        private int turn = -1;
+        private Trace current;
+        private int asid;
+
+        public MergedTrace(Trace[] traces) {
+            if (traces.length > AddressSpace.MAX_ASIDS) {
+                throw new IllegalArgumentException("Too many traces to merge");
+            }
+            this.traces = traces;
+            this.live = new int[traces.length];
+            for (int i = 0; i < traces.length; i++) {
+                live[i] = i;
+            }
+            this.liveCount = traces.length;
+        }
+
+        public boolean next() throws IOException {
+            while (liveCount > 0) {
+                turn = turn + 1 >= liveCount ? 0 : turn + 1;
+                Trace trace = traces[live[turn]];
+                if (trace.next()) {
+                    current = trace;
+                    asid = live[turn];
+                    return true;
+                }
+                // drop the finished trace, keeping the order of the rest
+                System.arraycopy(live, turn + 1, live, turn, liveCount - turn - 1);
+                liveCount--;
+                turn--;
+            }
+            return false;
+        }
+
+        public byte op() {
+            return current.op();
+        }
+
+        public long address() {
+            return current.address();
+        }
+
+        public int asid() {
+            return asid;
+        }
+
+        @Override
+        public void close() throws IOException {
+            for (Trace trace : traces) {
+                trace.close();
+            }
+        }
+    }
+
+    // allocation-free lackey trace parser, decoding the op and hex address of each reference
+    // straight out of one reusable buffer
+    public static class TraceReader implements Trace {
+        // reference lines are far shorter than this, so once this much is buffered the next line is whole
+        private static final int MAX_LINE = 256;
+        // hex digit values, -1 for anything else
+        private static final byte[] HEX = new byte[256];
+
+        static {
+            Arrays.fill(HEX, (byte) -1);
+            for (int i = 0; i < 10; i++) {
+                HEX['0' + i] = (byte) i;
+            }
+            for (int i = 0; i < 6; i++) {
+                HEX['a' + i] = (byte) (10 + i);
+                HEX['A' + i] = (byte) (10 + i);
+            }
+        }
+
+        private final ReadableByteChannel channel;
+        private final ByteBuffer buffer;
+        private final byte[] bytes;
+        private int pos = 0;
+        private int limit = 0;
+        private boolean eof = false;
+
+        // current reference
+        private byte op;
+        private long address;
+        private int asid;
+        private int pid;
+
+        // pid column read, else every reference is process 0
+        private final boolean pids;
+        // asid of each pid seen so far, asids handed out in order of first appearance
+        private final PageMap asids;
+        private int processes = 0;
+        // the last pid looked up, since lines of one process tend to come in runs
+        private int lastPid = -1;
+        private int lastAsid;
+
+        public TraceReader(String path) throws IOException {
+            this(FileChannel.open(Paths.get(path)));
+        }
+
+        public TraceReader(ReadableByteChannel channel) {
+            this(channel, false);
+        }
+
+        public TraceReader(ReadableByteChannel channel, boolean pids) {
+            this.channel = channel;
+            this.buffer = ByteBuffer.allocate(1 << 16);
+            this.bytes = buffer.array();
+            this.pids = pids;
+            this.asids = pids ? new PageMap(64) : null;
+        }
+
+        // advance to the next reference, skipping valgrind "==" lines, false at end of trace
+        public boolean next() throws IOException {
+            while (true) {
+                if (limit - pos < MAX_LINE && !eof) {
+                    fill();
+                }
+                // skip leading spaces
+                int p = pos;
+                while (p < limit && (bytes[p] == ' ' || bytes[p] == '\t' || bytes[p] == '\r')) {
+                    p++;
+                }
+                pos = p;
+                if (p == limit) {
+                    if (eof) {
+                        return false;
+                    }
+                    continue;
+                }
+                byte c = bytes[p];
+                if (c == '\n') {
+                    pos = p + 1;
+                    continue;
+                }
+                if (c == '=') {
+                    skipLine();
+                    continue;
+                }
+                // op char, then spaces, then the hex address up to the comma
+                op = c;
+                p++;
+                while (p < limit && (bytes[p] == ' ' || bytes[p] == '\t')) {
+                    p++;
+                }
+                long a = 0;
+                int start = p;
+                int digit;
+                while (p < limit && (digit = HEX[bytes[p] & 0xFF]) >= 0) {
+                    a = (a << 4) | digit;
+                    p++;
+                }
+                if (p == start) {
+                    throw new IOException("Invalid trace line");
+                }
+                address = a;
+                pos = p;
+                if (pids) {
+                    readPid();
+                }
+                skipLine();
+                return true;
+            }
+        }
+
+        public byte op() {
+            return op;
+        }
+
+        public long address() {
+            return address;
+        }
+
+        public int asid() {
+            return asid;
+        }
+
+        public int pid() {
+            return pid;
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+
+        // the size after the comma, then an optional pid column, mapped to its asid
+        private void readPid() throws IOException {
+            int p = pos;
+            if (p < limit && bytes[p] == ',') {
+                p++;
+                while (p < limit && bytes[p] >= '0' && bytes[p] <= '9') {
+                    p++;
+                }
+            }
+            while (p < limit && (bytes[p] == ' ' || bytes[p] == '\t')) {
+                p++;
+            }
+            long value = 0;
+            while (p < limit && bytes[p] >= '0' && bytes[p] <= '9') {
+                value = value * 10 + (bytes[p] - '0');
+                if (value > Integer.MAX_VALUE) {
+                    throw new IOException("Invalid trace line, pid too large");
+                }
+                p++;
+            }
+            pos = p;
+            pid = (int) value;
+            if (pid == lastPid) {
+                asid = lastAsid;
+                return;
+            }
+            long known = asids.get(pid);
+            if (known == -1) {
+                // only the number of processes is limited, by the asid bits in page keys
+                if (processes == AddressSpace.MAX_ASIDS) {
+                    throw new IOException("Invalid trace, more than " + AddressSpace.MAX_ASIDS + " processes");
+                }
+                known = processes++;
+                asids.put(pid, known);
+            }
+            lastPid = pid;
+            lastAsid = (int) known;
+            asid = lastAsid;
+        }
+
+        // move pos past the next newline
+        private void skipLine() throws IOException {
+            while (true) {
+                for (int p = pos; p < limit; p++) {
+                    if (bytes[p] == '\n') {
+                        pos = p + 1;
+                        return;
+                    }
+                }
+                pos = limit;
+                if (eof) {
+                    return;
+                }
+                fill();
+            }
+        }
+
+        // shift unread bytes to the front and read until at least a whole line is buffered
+        private void fill() throws IOException {
+            int remaining = limit - pos;
+            System.arraycopy(bytes, pos, bytes, 0, remaining);
+            pos = 0;
+            limit = remaining;
+            buffer.clear().position(limit);
+            while (limit < MAX_LINE && buffer.hasRemaining()) {
+                if (channel.read(buffer) == -1) {
+                    eof = true;
+                    break;
+                }
+                limit = buffer.position();
+            }
+        }
+    }
+
+    // writes the binary trace format, a 24 byte header followed by one record per reference
+    // header: magic, flags, page shift, an unused int keeping records 8 byte aligned, long record count,
+    // all little endian
+    // fixed records are one int, page num << 2 | op code, or one long with the wide flag
+    // delta records are a varint of the zigzagged page num delta << 2 | op code
+    public static class BinaryTraceWriter implements Closeable {
+        // "VMS2"
+        public static final int MAGIC = 0x32534D56;
+        // "VMSB", the first version, whose int record count capped traces at 2^31 references
+        public static final int OLD_MAGIC = 0x42534D56;
+        public static final int HEADER_SIZE = 24;
+        public static final int FLAG_DELTA = 1;
+        public static final int FLAG_WIDE = 2;
+        // widest page num a fixed int record holds, along with its op code
+        public static final int NARROW_PAGE_BITS = 30;
+        // op codes in records, I L S M
+        public static final byte[] OPS = {'I', 'L', 'S', 'M'};
+
+        private final FileChannel channel;
+        private final ByteBuffer buffer;
+        private final boolean delta;
+        private final boolean wide;
+        // records only hold page nums, the header keeps the page shift they were made with
+        private final int pageShift;
+        private long prevPage = 0;
+        private long count = 0;
+
+        public BinaryTraceWriter(String path, boolean delta, int pageShift, boolean wide) throws IOException {
+            this.channel = FileChannel.open(Paths.get(path), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING);
+            this.buffer = ByteBuffer.allocateDirect(1 << 20).order(ByteOrder.LITTLE_ENDIAN);
+            this.delta = delta;
+            this.wide = wide;
+            this.pageShift = pageShift;
+            // header is written on close once the count is known
+            channel.position(HEADER_SIZE);
+        }
+
+        public void write(long pageNum, byte op) throws IOException {
+            if (buffer.remaining() < 16) {
+                flush();
+            }
+            int code = opCode(op);
+            if (delta) {
+                long diff = pageNum - prevPage;
+                prevPage = pageNum;
+                // zigzag so small negative deltas stay small
+                long value = (((diff << 1) ^ (diff >> 63)) << 2) | code;
+                while ((value & ~0x7FL) != 0) {
+                    buffer.put((byte) ((value & 0x7F) | 0x80));
+                    value >>>= 7;
+                }
+                buffer.put((byte) value);
+            } else if (wide) {
+                buffer.putLong((pageNum << 2) | code);
+            } else {
+                buffer.putInt((int) (pageNum << 2) | code);
+            }
+            count++;
+        }
+
+        public long count() {
+            return count;
+        }
+
+        @Override
+        public void close() throws IOException {
+            flush();
+            buffer.putInt(MAGIC).putInt((delta ? FLAG_DELTA : 0) | (wide ? FLAG_WIDE : 0)).putInt(pageShift)
+                    .putInt(0).putLong(count);
+            buffer.flip();
+            channel.write(buffer, 0);
+            channel.close();
+        }
+
+        private void flush() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+
+        public static int opCode(byte op) {
+            switch (op) {
+                case 'I':
+                    return 0;
+                case 'L':
+                    return 1;
+                case 'S':
+                    return 2;
+                default:
+                    // anything else is treated as a modify, as calculateMemAccesses does
+                    return 3;
+            }
+        }
+    }
+
+    // reads a converted trace through memory-mapped windows of the file, no parsing involved
+    public static class BinaryTraceReader implements Trace {
+        // bytes mapped at a time, mappings are capped at 2GB
+        private static final long WINDOW = 1L << 30;
+
+        private final FileChannel channel;
+        private final long size;
+        private final boolean delta;
+        private final boolean wide;
+        private final int pageShift;
+        private long remaining;
+        private MappedByteBuffer window;
+        // file offset the window starts at
+        private long base;
+        private long page = 0;
+        private byte op;
+
+        public BinaryTraceReader(FileChannel channel) throws IOException {
+            this.channel = channel;
+            this.size = channel.size();
+            ByteBuffer header = ByteBuffer.allocate(BinaryTraceWriter.HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            channel.read(header, 0);
+            if (header.getInt(0) == BinaryTraceWriter.OLD_MAGIC) {
+                throw new IOException("Binary trace from an older version, convert it again");
+            }
+            if (header.getInt(0) != BinaryTraceWriter.MAGIC || header.getInt(8) < 0 || header.getInt(8) > 62) {
+                throw new IOException("Invalid binary trace");
+            }
+            this.delta = (header.getInt(4) & BinaryTraceWriter.FLAG_DELTA) != 0;
+            this.wide = (header.getInt(4) & BinaryTraceWriter.FLAG_WIDE) != 0;
+            this.pageShift = header.getInt(8);
+            this.remaining = header.getLong(16);
+            map(BinaryTraceWriter.HEADER_SIZE);
+        }
+
+        public boolean next() throws IOException {
+            if (remaining == 0) {
+                return false;
+            }
+            remaining--;
+            // a record never needs more than 10 bytes, slide the window before one could run off its end
+            if (window.remaining() < 16 && base + window.limit() < size) {
+                map(base + window.position());
+            }
+            long value;
+            if (delta) {
+                value = 0;
+                int shift = 0;
+                byte b;
+                while ((b = window.get()) < 0) {
+                    value |= (long) (b & 0x7F) << shift;
+                    shift += 7;
+                }
+                value |= (long) b << shift;
+                long zigzag = value >>> 2;
+                page += (zigzag >>> 1) ^ -(zigzag & 1);
+            } else if (wide) {
+                value = window.getLong();
+                page = value >>> 2;
+            } else {
+                value = window.getInt() & 0xFFFFFFFFL;
+                page = value >>> 2;
+            }
+            op = BinaryTraceWriter.OPS[(int) value & 3];
+            return true;
+        }
+
+        public byte op() {
+            return op;
+        }
+
+        // records only keep the page num, so this is the address of the start of the page
+        public long address() {
+            return page << pageShift;
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+
+        private void map(long offset) throws IOException {
+            base = offset;
+            window = channel.map(FileChannel.MapMode.READ_ONLY, offset, Math.min(WINDOW, size - offset));
+            window.order(ByteOrder.LITTLE_ENDIAN);
+        }
+    }
+
+    // second chance clock with the referenced bits of the frames packed into a bitmap
+    // the simulation keeps which page each frame holds, so the hand only ever needs these bits
+    public static class Clock implements ReplacementPolicy {
+        private final int numFrames;
+        // referenced bit of frame i is bit i % 64 of word i / 64
+        private final long[] ref;
+        // frames that exist in the last word
+        private final long lastWordMask;
+        private int clockPtr = 0;
+
+        public Clock(int numFrames) {
+            this.numFrames = numFrames;
+            this.ref = new long[(numFrames + 63) >>> 6];
+            this.lastWordMask = (numFrames & 63) == 0 ? -1L : (1L << numFrames) - 1;
+        }
+
+        public void onHit(int frame) {
+            ref[frame >>> 6] |= 1L << frame;
+        }
+
+        // a page is referenced as it is loaded
+        public void onFault(int frame, long pageNum) {
+            ref[frame >>> 6] |= 1L << frame;
+        }
+
+        // move the hand to the first unreferenced frame, clearing the referenced bits it passes over,
+        // a word of frames at a time
+        public int selectVictim(long pageNum) {
+            int frame = clockPtr;
+            while (true) {
+                int word = frame >>> 6;
+                // unreferenced frames in this word at or after the hand
+                long unreferenced = ~ref[word] & (-1L << frame);
+                if (word == ref.length - 1) {
+                    unreferenced &= lastWordMask;
+                }
+                if (unreferenced != 0) {
+                    int victim = (word << 6) + Long.numberOfTrailingZeros(unreferenced);
+                    // frames the hand passed over lose their second chance
+                    ref[word] &= ~((-1L << frame) & ~(-1L << victim));
+                    clockPtr = victim + 1 == numFrames ? 0 : victim + 1;
+                    return victim;
+                }
+                // every frame left in this word was referenced, clear them all and move to the next word
+                ref[word] &= ~(-1L << frame);
+                frame = word + 1 == ref.length ? 0 : (word + 1) << 6;
+            }
+        }
+
+        // the first unreferenced frame from the hand on, or the hand's own frame once a turn clears them all
+        public int peekVictim(long pageNum) {
+            int frame = clockPtr;
+            // the hand's word comes round twice, the frames before the hand in it are last
+            for (int words = 0; words <= ref.length; words++) {
+                int word = frame >>> 6;
+                long unreferenced = ~ref[word] & (-1L << frame);
+                if (word == ref.length - 1) {
+                    unreferenced &= lastWordMask;
+                }
+                if (unreferenced != 0) {
+                    return (word << 6) + Long.numberOfTrailingZeros(unreferenced);
+                }
+                frame = word + 1 == ref.length ? 0 : (word + 1) << 6;
+            }
+            return clockPtr;
+        }
+    }
+
+    // doubly linked list over int nodes [0, capacity), like frame numbers, with O(1) add, remove and move
+    public static class NodeList {
+        private static final int NIL = -1;
+
+        private final int[] prev;
+        private final int[] next;
+        private int head = NIL;
+        private int tail = NIL;
+        private int size = 0;
+
+        public NodeList(int capacity) {
+            prev = new int[capacity];
+            next = new int[capacity];
+        }
+
+        public int size() {
+            return size;
+        }
+
+        // oldest node, -1 if empty
+        public int head() {
+            return head;
+        }
+
+        public void addTail(int node) {
+            prev[node] = tail;
+            next[node] = NIL;
+            if (tail == NIL) {
+                head = node;
+            } else {
+                next[tail] = node;
+            }
+            tail = node;
+            size++;
+        }
+
+        public void remove(int node) {
+            int p = prev[node];
+            int n = next[node];
+            if (p == NIL) {
+                head = n;
+            } else {
+                next[p] = n;
+            }
+            if (n == NIL) {
+                tail = p;
+            } else {
+                prev[n] = p;
+            }
+            size--;
+        }
+
+        public int removeHead() {
+            int node = head;
+            remove(node);
+            return node;
+        }
+
+        public void moveToTail(int node) {
+            if (node != tail) {
+                remove(node);
+                addTail(node);
+            }
+        }
+    }
+
+    // open addressing hash map from page key to a long, for bookkeeping that has to outlive residency
+    // sized for a number of entries, it only rehashes if more than that are put in
+    public static class PageMap {
+        private static final long EMPTY = -1;
+
+        private long[] keys;
+        private long[] values;
+        private int mask;
+        private int size = 0;
+
+        public PageMap(int maxEntries) {
+            allocate(Integer.highestOneBit(Math.max(maxEntries, 2) * 2 - 1) << 1);
+        }
+
+        private void allocate(int capacity) {
+            keys = new long[capacity];
+            values = new long[capacity];
+            mask = capacity - 1;
+            Arrays.fill(keys, EMPTY);
+        }
+
+        // value for page key, -1 if absent
+        public long get(long pageNum) {
+            for (int i = hash(pageNum); ; i = (i + 1) & mask) {
+                if (keys[i] == pageNum) {
+                    return values[i];
+                }
+                if (keys[i] == EMPTY) {
+                    return -1;
+                }
+            }
+        }
+
+        public void put(long pageNum, long value) {
+            int i = hash(pageNum);
+            while (keys[i] != EMPTY && keys[i] != pageNum) {
+                i = (i + 1) & mask;
+            }
+            if (keys[i] == EMPTY) {
+                // keep the table at most half full
+                if (++size > keys.length >>> 1) {
+                    grow();
+                    put(pageNum, value);
+                    return;
+                }
+                keys[i] = pageNum;
+            }
+            values[i] = value;
+        }
+
+        // double the table, reinserting every entry
+        private void grow() {
+            long[] oldKeys = keys;
+            long[] oldValues = values;
+            allocate(oldKeys.length * 2);
+            size = 0;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] != EMPTY) {
+                    put(oldKeys[i], oldValues[i]);
+                }
+            }
+        }
+
+        public void remove(long pageNum) {
+            int i = hash(pageNum);
+            while (keys[i] != pageNum) {
+                if (keys[i] == EMPTY) {
+                    return;
+                }
+                i = (i + 1) & mask;
+            }
+            // shift later entries of the probe run back so lookups never stop early
+            int j = i;
+            while (true) {
+                j = (j + 1) & mask;
+                if (keys[j] == EMPTY) {
+                    break;
+                }
+                int home = hash(keys[j]);
+                // move j into the hole unless its home lies cyclically in (i, j]
+                if (i <= j ? (home <= i || home > j) : (home <= i && home > j)) {
+                    keys[i] = keys[j];
+                    values[i] = values[j];
+                    i = j;
+                }
+            }
+            keys[i] = EMPTY;
+            size--;
+        }
+
+        private int hash(long pageNum) {
+            long h = pageNum * 0x9E3779B97F4A7C15L;
+            return (int) (h ^ (h >>> 32)) & mask;
+        }
+    }
+
+    // a long per page key, -1 until set, in a flat array for the keys of a single 32 bit address space
+    // and a hash map for anything wider, so the common case stays an array index
+    public static class PageValues {
+        private static final int FLAT_KEYS = 1 << 19;
+
+        private final long[] flat = new long[FLAT_KEYS];
+        private final PageMap rest = new PageMap(1 << 10);
+
+        public PageValues() {
+            Arrays.fill(flat, -1);
+        }
+
+        public long get(long pageNum) {
+            return pageNum < FLAT_KEYS ? flat[(int) pageNum] : rest.get(pageNum);
+        }
+
+        public void put(long pageNum, long value) {
+            if (pageNum < FLAT_KEYS) {
+                flat[(int) pageNum] = value;
+            } else {
+                rest.put(pageNum, value);
+            }
+        }
+
+        public void remove(long pageNum) {
+            if (pageNum < FLAT_KEYS) {
+                flat[(int) pageNum] = -1;
+            } else {
+                rest.remove(pageNum);
+            }
+        }
+    }
+
+    // page nums of recently evicted pages in fifo order, with O(1) lookup, for ARC and 2Q
+    public static class GhostList {
+        private final NodeList order;
+        private final long[] slotPage;
+        private final PageMap slots;
+        // unused slots
+        private final int[] free;
+        private int freeCount;
+
+        public GhostList(int capacity) {
+            order = new NodeList(capacity);
+            slotPage = new long[capacity];
+            slots = new PageMap(capacity);
+            free = new int[capacity];
+            for (int i = 0; i < capacity; i++) {
+                free[i] = capacity - 1 - i;
+            }
+            freeCount = capacity;
+        }
+
+        public int size() {
+            return order.size();
+        }
+
+        public boolean contains(long pageNum) {
+            return slots.get(pageNum) != -1;
+        }
+
+        // remember page num as the newest entry
+        public void add(long pageNum) {
+            int slot = free[--freeCount];
+            slotPage[slot] = pageNum;
+            slots.put(pageNum, slot);
+            order.addTail(slot);
+        }
+
+        public void remove(long pageNum) {
+            int slot = (int) slots.get(pageNum);
+            if (slot != -1) {
+                drop(slot);
+            }
+        }
+
+        // forget the oldest entry
+        public void removeOldest() {
+            drop(order.head());
+        }
+
+        private void drop(int slot) {
+            order.remove(slot);
+            slots.remove(slotPage[slot]);
+            free[freeCount++] = slot;
+        }
+    }
+
+    // LRU, frames in a linked list with the lru frame at the head and the mru frame at the tail
+    public static class LRUList implements ReplacementPolicy {
+        private final NodeList list;
+
+        public LRUList(int numFrames) {
+            list = new NodeList(numFrames);
+        }
+
+        // page hit, move it to the mru end
+        public void onHit(int frame) {
+            list.moveToTail(frame);
+        }
+
+        // new pages go straight to the mru end
+        public void onFault(int frame, long pageNum) {
+            list.addTail(frame);
+        }
+
+        // unlink the lru frame from the head of the list
+        public int selectVictim(long pageNum) {
+            return list.removeHead();
+        }
+
+        public int peekVictim(long pageNum) {
+            return list.head();
+        }
+    }
+
+    // ARC, adaptive replacement cache (Megiddo and Modha)
+    // t1 holds pages seen once recently and t2 pages seen at least twice, b1 and b2 remember pages evicted
+    // from each, and a hit in b1 or b2 moves the target size p of t1 towards whichever list would have kept it
+    public static class ARC implements ReplacementPolicy {
+        private final int c;
+        private final NodeList t1;
+        private final NodeList t2;
+        // which of t1 or t2 each frame is on
+        private final boolean[] inT2;
+        private final long[] framePage;
+        private final GhostList b1;
+        private final GhostList b2;
+        // target size of t1
+        private int p = 0;
+        // the faulting page was found in b1 or b2 by selectVictim
+        private boolean ghostHit = false;
+
+        public ARC(int numFrames) {
+            c = numFrames;
+            t1 = new NodeList(numFrames);
+            t2 = new NodeList(numFrames);
+            inT2 = new boolean[numFrames];
+            framePage = new long[numFrames];
+            // b1 and b2 hold at most c pages between them, plus one while a ghost hit is being replaced
+            b1 = new GhostList(numFrames + 1);
+            b2 = new GhostList(numFrames + 1);
+        }
+
+        public void onHit(int frame) {
+            // seen again, so it belongs at the mru end of t2
+            if (inT2[frame]) {
+                t2.moveToTail(frame);
+            } else {
+                t1.remove(frame);
+                t2.addTail(frame);
+                inT2[frame] = true;
+            }
+        }
+
+        public void onFault(int frame, long pageNum) {
+            framePage[frame] = pageNum;
+            inT2[frame] = ghostHit;
+            if (ghostHit) {
+                t2.addTail(frame);
+            } else {
+                t1.addTail(frame);
+            }
+            ghostHit = false;
+        }
+
+        public int selectVictim(long pageNum) {
+            if (b1.contains(pageNum)) {
+                // t1 was too small, grow its target
+                p = grownTarget();
+                int frame = replace(false);
+                b1.remove(pageNum);
+                ghostHit = true;
+                return frame;
+            }
+            if (b2.contains(pageNum)) {
+                // t2 was too small, shrink t1's target
+                p = shrunkTarget();
+                int frame = replace(true);
+                b2.remove(pageNum);
+                ghostHit = true;
+                return frame;
+            }
+            if (t1.size() + b1.size() == c) {
+                if (t1.size() < c) {
+                    b1.removeOldest();
+                    return replace(false);
+                }
+                // b1 is empty and t1 fills memory, evict its lru page without remembering it
+                return t1.removeHead();
+            }
+            if (t1.size() + t2.size() + b1.size() + b2.size() == 2 * c) {
+                b2.removeOldest();
+            }
+            return replace(false);
+        }
+
+        // selectVictim's choice, with the target it would adapt to
+        public int peekVictim(long pageNum) {
+            if (b1.contains(pageNum)) {
+                return fromT1(false, grownTarget()) ? t1.head() : t2.head();
+            }
+            if (b2.contains(pageNum)) {
+                return fromT1(true, shrunkTarget()) ? t1.head() : t2.head();
+            }
+            if (t1.size() + b1.size() == c && t1.size() == c) {
+                return t1.head();
+            }
+            return fromT1(false, p) ? t1.head() : t2.head();
+        }
+
+        private int grownTarget() {
+            return Math.min(c, p + Math.max(1, b2.size() / b1.size()));
+        }
+
+        private int shrunkTarget() {
+            return Math.max(0, p - Math.max(1, b1.size() / b2.size()));
+        }
+
+        // whether replace takes t1's lru page rather than t2's, for target
+        private boolean fromT1(boolean inB2, int target) {
+            return t1.size() > 0 && (t1.size() > target || (inB2 && t1.size() == target) || t2.size() == 0);
+        }
+
+        // evict the lru page of t1 or t2 depending on the target, remembering it in b1 or b2
+        private int replace(boolean inB2) {
+            int frame;
+            if (fromT1(inB2, p)) {
+                frame = t1.removeHead();
+                b1.add(framePage[frame]);
+            } else {
+                frame = t2.removeHead();
+                b2.add(framePage[frame]);
+            }
+            return frame;
+        }
+    }
+
+    // 2Q (Johnson and Shasha), first-time pages wait in a fifo a1in, and only pages referenced again after
+    // falling out of it, while still remembered in a1out, are promoted to the lru queue am
+    public static class TwoQueue implements ReplacementPolicy {
+        // a1in target, a quarter of memory, and a1out size, half of memory, as the paper suggests
+        private final int kin;
+        private final int kout;
+        private final NodeList a1in;
+        private final NodeList am;
+        private final boolean[] inAm;
+        private final long[] framePage;
+        private final GhostList a1out;
+        // the faulting page was found in a1out by selectVictim
+        private boolean ghostHit = false;
+
+        public TwoQueue(int numFrames) {
+            kin = Math.max(1, numFrames / 4);
+            kout = Math.max(1, numFrames / 2);
+            a1in = new NodeList(numFrames);
+            am = new NodeList(numFrames);
+            inAm = new boolean[numFrames];
+            framePage = new long[numFrames];
+            a1out = new GhostList(kout + 1);
+        }
+
+        // only am is kept in lru order, hits in a1in are correlated references and change nothing
+        public void onHit(int frame) {
+            if (inAm[frame]) {
+                am.moveToTail(frame);
+            }
+        }
+
+        public void onFault(int frame, long pageNum) {
+            framePage[frame] = pageNum;
+            inAm[frame] = ghostHit;
+            if (ghostHit) {
+                am.addTail(frame);
+            } else {
+                a1in.addTail(frame);
+            }
+            ghostHit = false;
+        }
+
+        public int selectVictim(long pageNum) {
+            if (a1out.contains(pageNum)) {
+                a1out.remove(pageNum);
+                ghostHit = true;
+            }
+            if (fromA1in()) {
+                // page out the oldest of a1in, remembering it in a1out
+                int frame = a1in.removeHead();
+                a1out.add(framePage[frame]);
+                if (a1out.size() > kout) {
+                    a1out.removeOldest();
+                }
+                return frame;
+            }
+            return am.removeHead();
+        }
+
+        public int peekVictim(long pageNum) {
+            return fromA1in() ? a1in.head() : am.head();
+        }
+
+        private boolean fromA1in() {
+            return a1in.size() > kin || am.size() == 0;
+        }
+    }
+
+    // CLOCK-Pro (Jiang, Chen and Zhang), approximating LIRS with clock hands
+    // resident pages are hot or cold, and a cold page that is evicted stays on the clock as a non-resident
+    // test entry for a while, so a fault on it shows its reuse distance is short and it comes back hot
+    // hand cold evicts unreferenced cold pages, hand hot demotes unreferenced hot pages, and hand test
+    // expires test entries, with the cold target adapting to whether test entries get reused
+    // this follows the common simplified form where every new cold page starts in its test period
+    public static class ClockPro implements ReplacementPolicy {
+        private static final int NIL = -1;
+        private static final byte COLD = 0;
+        private static final byte HOT = 1;
+        private static final byte TEST = 2;
+
+        private final int c;
+        // nodes [0, c) are frames, nodes [c, 2c + 1) hold non-resident test entries
+        private final int[] prev;
+        private final int[] next;
+        private final long[] nodePage;
+        private final byte[] type;
+        private final boolean[] ref;
+        private final int[] freeTest;
+        private int freeTestCount = 0;
+        // test entry node of each non-resident page still in its test period
+        private final PageMap testNodes;
+        private int handHot = NIL;
+        private int handCold = NIL;
+        private int handTest = NIL;
+        private int countHot = 0;
+        private int countCold = 0;
+        private int countTest = 0;
+        // target number of cold pages
+        private int coldTarget;
+        // the faulting page was a test entry, so it comes back hot
+        private boolean revived = false;
+        // frame given up by the current run of hand cold
+        private int victim = NIL;
+
+        public ClockPro(int numFrames) {
+            c = numFrames;
+            int nodes = 2 * numFrames + 1;
+            prev = new int[nodes];
+            next = new int[nodes];
+            nodePage = new long[nodes];
+            type = new byte[nodes];
+            ref = new boolean[numFrames];
+            freeTest = new int[numFrames + 1];
+            for (int node = nodes - 1; node >= numFrames; node--) {
+                freeTest[freeTestCount++] = node;
+            }
+            testNodes = new PageMap(numFrames + 1);
+            coldTarget = numFrames;
+        }
+
+        public void onHit(int frame) {
+            ref[frame] = true;
+        }
+
+        public void onFault(int frame, long pageNum) {
+            // a fault on a test entry while frames are still free is found here, otherwise selectVictim found it
+            boolean hot = revived || revive(pageNum);
+            revived = false;
+            nodePage[frame] = pageNum;
+            ref[frame] = false;
+            if (hot) {
+                type[frame] = HOT;
+                countHot++;
+            } else {
+                type[frame] = COLD;
+                countCold++;
+            }
+            link(frame);
+        }
+
+        public int selectVictim(long pageNum) {
+            revived = revive(pageNum);
+            victim = NIL;
+            while (victim == NIL) {
+                runHandCold();
+            }
+            return victim;
+        }
+
+        // if page num has a test entry, drop it and grow the cold target, its reuse was short
+        private boolean revive(long pageNum) {
+            int node = (int) testNodes.get(pageNum);
+            if (node == -1) {
+                return false;
+            }
+            removeTest(node);
+            if (coldTarget < c) {
+                coldTarget++;
+            }
+            return true;
+        }
+
+        private void runHandCold() {
+            int node = handCold;
+            if (type[node] == COLD && node < c) {
+                if (ref[node]) {
+                    // referenced during its test period, promote
+                    type[node] = HOT;
+                    ref[node] = false;
+                    countCold--;
+                    countHot++;
+                } else {
+                    // evict, leaving a test entry in its place on the clock
+                    int test = freeTest[--freeTestCount];
+                    nodePage[test] = nodePage[node];
+                    type[test] = TEST;
+                    replaceNode(node, test);
+                    testNodes.put(nodePage[test], test);
+                    countCold--;
+                    countTest++;
+                    victim = node;
+                    while (countTest > c) {
+                        runHandTest();
+                    }
+                }
+            }
+            handCold = next[handCold];
+            while (countHot > c - coldTarget) {
+                runHandHot();
+            }
+        }
+
+        private void runHandHot() {
+            if (handHot == handTest) {
+                runHandTest();
+            }
+            int node = handHot;
+            if (type[node] == HOT && node < c) {
+                if (ref[node]) {
+                    ref[node] = false;
+                } else {
+                    type[node] = COLD;
+                    countHot--;
+                    countCold++;
+                }
+            }
+            handHot = next[handHot];
+        }
+
+        // the reference version also runs hand cold when hand test catches it up, which can evict a second
+        // page, here hand test may pass it instead so every victim search gives up exactly one frame
+        private void runHandTest() {
+            int node = handTest;
+            if (type[node] == TEST && node >= c) {
+                // test period over without a reuse, shrink the cold target
+                removeTest(node);
+                if (coldTarget > 1) {
+                    coldTarget--;
+                }
+            }
+            handTest = next[handTest];
+        }
+
+        private void removeTest(int node) {
+            testNodes.remove(nodePage[node]);
+            unlink(node);
+            freeTest[freeTestCount++] = node;
+            countTest--;
+        }
+
+        // insert node at the head of the clock, just behind hand hot
+        private void link(int node) {
+            if (handHot == NIL) {
+                prev[node] = node;
+                next[node] = node;
+                handHot = node;
+                handCold = node;
+                handTest = node;
+                return;
+            }
+            int p = prev[handHot];
+            next[p] = node;
+            prev[node] = p;
+            next[node] = handHot;
+            prev[handHot] = node;
+            if (handCold == handHot) {
+                handCold = node;
+            }
+        }
+
+        // take node off the clock, moving any hand on it back one
+        private void unlink(int node) {
+            int p = prev[node];
+            if (handHot == node) {
+                handHot = p;
+            }
+            if (handCold == node) {
+                handCold = p;
+            }
+            if (handTest == node) {
+                handTest = p;
+            }
+            next[p] = next[node];
+            prev[next[node]] = p;
+        }
+
+        // put replacement in node's place on the clock, hands included
+        private void replaceNode(int node, int replacement) {
+            if (next[node] == node) {
+                prev[replacement] = replacement;
+                next[replacement] = replacement;
+            } else {
+                prev[replacement] = prev[node];
+                next[replacement] = next[node];
+                next[prev[node]] = replacement;
+                prev[next[node]] = replacement;
+            }
+            if (handHot == node) {
+                handHot = replacement;
+            }
+            if (handCold == node) {
+                handCold = replacement;
+            }
+            if (handTest == node) {
+                handTest = replacement;
+            }
+        }
+    }
+
+    // O(1) LFU (Shah, Mitra and Matani), frames sit in buckets of equal use count kept in increasing
+    // count order, so a hit moves a frame to the neighbouring bucket and the victim is the oldest frame
+    // of the first bucket, ties among equally used pages go to the least recently loaded or promoted
+    public static class LFU implements ReplacementPolicy {
+        private static final int NIL = -1;
+
+        // frames within each bucket, oldest first
+        private final int[] framePrev;
+        private final int[] frameNext;
+        private final int[] frameBucket;
+        // buckets, at most one per frame plus a spare for a hit opening the next bucket before leaving its own
+        private final long[] count;
+        private final int[] bucketHead;
+        private final int[] bucketTail;
+        private final int[] bucketPrev;
+        private final int[] bucketNext;
+        private final int[] freeBuckets;
+        private int freeBucketCount = 0;
+        // bucket with the lowest use count
+        private int first = NIL;
+
+        public LFU(int numFrames) {
+            framePrev = new int[numFrames];
+            frameNext = new int[numFrames];
+            frameBucket = new int[numFrames];
+            count = new long[numFrames + 1];
+            bucketHead = new int[numFrames + 1];
+            bucketTail = new int[numFrames + 1];
+            bucketPrev = new int[numFrames + 1];
+            bucketNext = new int[numFrames + 1];
+            freeBuckets = new int[numFrames + 1];
+            for (int b = numFrames; b >= 0; b--) {
+                freeBuckets[freeBucketCount++] = b;
+            }
+        }
+
+        public void onHit(int frame) {
+            int bucket = frameBucket[frame];
+            int target = bucketNext[bucket];
+            if (target == NIL || count[target] != count[bucket] + 1) {
+                target = newBucket(count[bucket] + 1, bucket);
+            }
+            unlinkFrame(frame);
+            appendFrame(target, frame);
+        }
+
+        // loaded pages start with a count of one
+        public void onFault(int frame, long pageNum) {
+            int bucket = first;
+            if (bucket == NIL || count[bucket] != 1) {
+                bucket = newBucket(1, NIL);
+            }
+            appendFrame(bucket, frame);
+        }
+
+        public int selectVictim(long pageNum) {
+            int frame = bucketHead[first];
+            unlinkFrame(frame);
+            return frame;
+        }
+
+        public int peekVictim(long pageNum) {
+            return bucketHead[first];
+        }
+
+        // new empty bucket for use count n, just after bucket after, or first if after is -1
+        private int newBucket(long n, int after) {
+            int bucket = freeBuckets[--freeBucketCount];
+            count[bucket] = n;
+            bucketHead[bucket] = NIL;
+            bucketTail[bucket] = NIL;
+            bucketPrev[bucket] = after;
+            bucketNext[bucket] = after == NIL ? first : bucketNext[after];
+            if (bucketNext[bucket] != NIL) {
+                bucketPrev[bucketNext[bucket]] = bucket;
+            }
+            if (after == NIL) {
+                first = bucket;
+            } else {
+                bucketNext[after] = bucket;
+            }
+            return bucket;
+        }
+
+        private void appendFrame(int bucket, int frame) {
+            frameBucket[frame] = bucket;
+            framePrev[frame] = bucketTail[bucket];
+            frameNext[frame] = NIL;
+            if (bucketTail[bucket] == NIL) {
+                bucketHead[bucket] = frame;
+            } else {
+                frameNext[bucketTail[bucket]] = frame;
+            }
+            bucketTail[bucket] = frame;
+        }
+
+        // take frame out of its bucket, dropping the bucket if that empties it
+        private void unlinkFrame(int frame) {
+            int bucket = frameBucket[frame];
+            int p = framePrev[frame];
+            int n = frameNext[frame];
+            if (p == NIL) {
+                bucketHead[bucket] = n;
+            } else {
+                frameNext[p] = n;
+            }
+            if (n == NIL) {
+                bucketTail[bucket] = p;
+            } else {
+                framePrev[n] = p;
+            }
+            if (bucketHead[bucket] == NIL) {
+                int bp = bucketPrev[bucket];
+                int bn = bucketNext[bucket];
+                if (bp == NIL) {
+                    first = bn;
+                } else {
+                    bucketNext[bp] = bn;
+                }
+                if (bn != NIL) {
+                    bucketPrev[bn] = bp;
+                }
+                freeBuckets[freeBucketCount++] = bucket;
+            }
+        }
+    }
+
+    // WSClock (Carr and Hennessy), clock over the frames with the time each was last seen referenced
+    // the hand clears referenced bits, stamping those frames with the current time, and stops at the first
+    // unreferenced frame older than tau, if a whole turn finds none it takes the oldest unreferenced frame
+    // time is virtual, one tick per reference, hit or fault, a prefetched page is read in without a tick
+    public static class WSClock implements ReplacementPolicy {
+        private final int numFrames;
+        private final long tau;
+        // referenced bit of frame i is bit i % 64 of word i / 64
+        private final long[] ref;
+        private final long[] lastUse;
+        private int hand = 0;
+        private long now = 0;
+
+        public WSClock(int numFrames, long tau) {
+            this.numFrames = numFrames;
+            this.tau = tau;
+            this.ref = new long[(numFrames + 63) >>> 6];
+            this.lastUse = new long[numFrames];
+        }
+
+        public void onHit(int frame) {
+            now++;
+            ref[frame >>> 6] |= 1L << frame;
+        }
+
+        public void onFault(int frame, long pageNum) {
+            now++;
+            ref[frame >>> 6] |= 1L << frame;
+            lastUse[frame] = now;
+        }
+
+        // no reference, so virtual time stands still and the page isn't marked referenced
+        public void onPrefetch(int frame, long pageNum) {
+            ref[frame >>> 6] &= ~(1L << frame);
+            lastUse[frame] = now;
+        }
+
+        public int selectVictim(long pageNum) {
+            int oldest = -1;
+            for (int step = 0; step < numFrames; step++) {
+                int frame = hand;
+                hand = hand + 1 == numFrames ? 0 : hand + 1;
+                if ((ref[frame >>> 6] & (1L << frame)) != 0) {
+                    ref[frame >>> 6] &= ~(1L << frame);
+                    lastUse[frame] = now;
+                } else if (now - lastUse[frame] > tau) {
+                    // left the working set
+                    return frame;
+                } else if (oldest == -1 || lastUse[frame] < lastUse[oldest]) {
+                    oldest = frame;
+                }
+            }
+            // every page is in the working set, a full turn cleared all their referenced bits
+            if (oldest == -1) {
+                oldest = hand;
+            }
+            hand = oldest + 1 == numFrames ? 0 : oldest + 1;
+            return oldest;
+        }
+
+        // the same turn as selectVictim, referenced frames become young as the hand clears them so none can win
+        public int peekVictim(long pageNum) {
+            int oldest = -1;
+            int frame = hand;
+            for (int step = 0; step < numFrames; step++) {
+                if ((ref[frame >>> 6] & (1L << frame)) == 0) {
+                    if (now - lastUse[frame] > tau) {
+                        return frame;
+                    }
+                    if (oldest == -1 || lastUse[frame] < lastUse[oldest]) {
+                        oldest = frame;
+                    }
+                }
+                frame = frame + 1 == numFrames ? 0 : frame + 1;
+            }
+            return oldest == -1 ? hand : oldest;
+        }
+    }
+
+    // Denning's working set, the pages referenced in the last tau references stay resident and no others
+    // frames are kept in lru order, so pages leave the window from the head of the list
+    // numFrames caps the working set, past it the lru page is replaced as in lru
+    public static class WorkingSet implements ResidentSetPolicy {
+        private final long tau;
+        private final NodeList list;
+        private final long[] lastUse;
+        private long now = 0;
+
+        public WorkingSet(int numFrames, long tau) {
+            this.tau = tau;
+            this.list = new NodeList(numFrames);
+            this.lastUse = new long[numFrames];
+        }
+
+        // drop the lru page once it falls out of the window, the tau references before time
+        public int trim(long time, boolean fault) {
+            now = time;
+            int head = list.head();
+            if (head != -1 && lastUse[head] < time - tau) {
+                list.remove(head);
+                return head;
+            }
+            return -1;
+        }
+
+        public void onHit(int frame) {
+            lastUse[frame] = now;
+            list.moveToTail(frame);
+        }
+
+        public void onFault(int frame, long pageNum) {
+            lastUse[frame] = now;
+            list.addTail(frame);
+        }
+
+        public int selectVictim(long pageNum) {
+            return list.removeHead();
+        }
+
+        public int peekVictim(long pageNum) {
+            return list.head();
+        }
+    }
+
+    // page fault frequency (Chu and Opderbeck), the resident set only changes size at faults
+    // a fault within tau references of the last one grows it by the faulting page, a later fault first drops
+    // every page not referenced since the last fault, either way the use bits, kept apart from the clock's
+    // second chance bits, are cleared at the fault
+    // numFrames caps the resident set, past it clock replaces within it
+    public static class PFF implements ResidentSetPolicy {
+        private final long tau;
+        // the clock that replaces once every frame is resident, with its own second chance bits
+        private final Clock clock;
+        // frames holding pages, and frames referenced since the last fault, bit i % 64 of word i / 64
+        private final long[] resident;
+        private final long[] used;
+        private long lastFault = 0;
+        // the fault being served is dropping pages, word of the next frames to look at
+        private boolean shrinking = false;
+        private int word = 0;
+
+        public PFF(int numFrames, long tau) {
+            this.tau = tau;
+            this.clock = new Clock(numFrames);
+            this.resident = new long[(numFrames + 63) >>> 6];
+            this.used = new long[(numFrames + 63) >>> 6];
+        }
+
+        public int trim(long time, boolean fault) {
+            if (!fault) {
+                return -1;
+            }
+            if (!shrinking) {
+                long interval = time - lastFault;
+                lastFault = time;
+                if (interval <= tau) {
+                    // the set only grows, use is counted afresh from this fault
+                    Arrays.fill(used, 0);
+                    return -1;
+                }
+                shrinking = true;
+                word = 0;
+            }
+            // resident frames unreferenced since the last fault, a word at a time
+            for (; word < resident.length; word++) {
+                long unreferenced = resident[word] & ~used[word];
+                if (unreferenced != 0) {
+                    int frame = (word << 6) + Long.numberOfTrailingZeros(unreferenced);
+                    resident[word] &= ~(1L << frame);
+                    return frame;
+                }
+            }
+            shrinking = false;
+            Arrays.fill(used, 0);
+            return -1;
+        }
+
+        public void onHit(int frame) {
+            clock.onHit(frame);
+            used[frame >>> 6] |= 1L << frame;
+        }
+
+        public void onFault(int frame, long pageNum) {
+            clock.onFault(frame, pageNum);
+            resident[frame >>> 6] |= 1L << frame;
+            used[frame >>> 6] |= 1L << frame;
+        }
+
+        public int selectVictim(long pageNum) {
+            int frame = clock.selectVictim(pageNum);
+            resident[frame >>> 6] &= ~(1L << frame);
+            return frame;
+        }
+
+        public int peekVictim(long pageNum) {
+            return clock.peekVictim(pageNum);
+        }
+    }
+
+    // next use of every trace access, 4 bytes per access
+    // kept on the heap for small traces and spilled to a memory-mapped temp file past SPILL_THRESHOLD accesses
+    public static class NextUseTable {
+        // sentinel for an access whose page is never referenced again
+        public static final int NEVER = Integer.MAX_VALUE;
+        // 2^22 ints = 16MB per chunk
+        private static final int CHUNK_BITS = 22;
+        private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+        // accesses held on the heap before new chunks are mapped from disk (256MB)
+        private static final int SPILL_THRESHOLD = 1 << 26;
+
+        private final ArrayList<IntBuffer> chunks = new ArrayList<>();
+        private FileChannel spill;
+
+        // next use of access i
+        public int get(int i) {
+            return chunks.get(i >>> CHUNK_BITS).get(i & (CHUNK_SIZE - 1));
+        }
+
+        public void set(int i, int next) throws IOException {
+            int chunk = i >>> CHUNK_BITS;
+            // accesses arrive in order, so at most one new chunk is needed
+            if (chunk == chunks.size()) {
+                chunks.add(newChunk(chunk));
+            }
+            chunks.get(chunk).put(i & (CHUNK_SIZE - 1), next);
+        }
+
+        private IntBuffer newChunk(int chunk) throws IOException {
+            long start = (long) chunk << CHUNK_BITS;
+            if (start < SPILL_THRESHOLD) {
+                return IntBuffer.allocate(CHUNK_SIZE);
+            }
+            if (spill == null) {
+                File file = File.createTempFile("vmsim", ".nextuse");
+                file.deleteOnExit();
+                // the mapping stays valid after the file is closed, so the channel is never closed explicitly
+                spill = new RandomAccessFile(file, "rw").getChannel();
+            }
+            // map only the spilled region of the file, 4 bytes per access
+            long offset = (start - SPILL_THRESHOLD) * 4;
+            return spill.map(FileChannel.MapMode.READ_WRITE, offset, (long) CHUNK_SIZE * 4)
+                    .order(ByteOrder.nativeOrder()).asIntBuffer();
+        }
+    }
+
+    // OPT frame store, an indexed max heap of frames keyed on the next use of the page they hold
+    // eviction is O(1) and re-keying a frame is O(log frames)
+    public static class OPTHeap implements ReplacementPolicy {
+        // next use of every access in the trace
+        private final NextUseTable nextUse;
+        // index of the access being simulated
+        private int i = 0;
+        // next use of the page in each frame
+        private final long[] keys;
+        // heap of frame numbers, and each frame's position in it
+        private final int[] heap;
+        private final int[] pos;
+        // number of frames in the heap
+        private int used = 0;
+
+        public OPTHeap(int numFrames, NextUseTable nextUse) {
+            this.nextUse = nextUse;
+            keys = new long[numFrames];
+            heap = new int[numFrames];
+            pos = new int[numFrames];
+            // -1 until the frame joins the heap
+            Arrays.fill(pos, -1);
+        }
+
+        // page hit, its next use has moved further into the future
+        public void onHit(int frame) {
+            update(frame, nextUse());
+        }
+
+        public void onFault(int frame, long pageNum) {
+            // when this page will be referenced next, after this access
+            long next = nextUse();
+            if (pos[frame] == -1) {
+                insert(frame, next);
+            } else {
+                // the frame selectVictim gave up is still in the heap, just re-key it
+                update(frame, next);
+            }
+        }
+
+        // the top of the heap holds the page used farthest in the future
+        public int selectVictim(long pageNum) {
+            return heap[0];
+        }
+
+        // next use of the page referenced by the access being simulated, moving on to the next access
+        protected long nextUse() {
+            return nextUse.get(i++);
+        }
+
+        // add frame to the heap
+        private void insert(int frame, long next) {
+            int i = used++;
+            keys[frame] = next;
+            heap[i] = frame;
+            pos[frame] = i;
+            siftUp(i);
+        }
+
+        // re-key frame after its page was referenced
+        public void update(int frame, long next) {
+            long old = keys[frame];
+            keys[frame] = next;
+            if (next > old) {
+                siftUp(pos[frame]);
+            } else {
+                siftDown(pos[frame]);
+            }
+        }
+
+        // a goes above b if it is used later, ties go to the lower frame as the old list scan did
+        private boolean above(int a, int b) {
+            return keys[a] > keys[b] || (keys[a] == keys[b] && a < b);
+        }
+
+        private void siftUp(int i) {
+            int frame = heap[i];
+            while (i > 0) {
+                int parent = (i - 1) >>> 1;
+                if (!above(frame, heap[parent])) {
+                    break;
+                }
+                place(heap[parent], i);
+                i = parent;
+            }
+            place(frame, i);
+        }
+
+        private void siftDown(int i) {
+            int frame = heap[i];
+            int half = used >>> 1;
+            while (i < half) {
+                int child = 2 * i + 1;
+                if (child + 1 < used && above(heap[child + 1], heap[child])) {
+                    child++;
+                }
+                if (!above(heap[child], frame)) {
+                    break;
+                }
+                place(heap[child], i);
+                i = child;
+            }
+            place(frame, i);
+        }
+
+        private void place(int frame, int i) {
+            heap[i] = frame;
+            pos[frame] = i;
+        }
+    }
+
+    // OPT that only sees a bounded window of future references, so it runs in fixed memory on any trace
+    // it reads the trace itself, lookahead references ahead of the simulation, kept in a ring buffer
+    // as a reference enters the window it becomes the next use of the page's previous reference, and if that
+    // reference was already simulated and the page is still resident, its frame is re-keyed on the spot
+    // pages with no next use inside the window are evicted least recently used first
+    public static class LookaheadOPT extends OPTHeap implements Trace {
+        // ring slots, the reference being simulated plus lookahead more
+        private final int capacity;
+        // record for each reference in the window, page num << 2 | op code as in the binary format
+        private final long[] ring;
+        // next use of each reference in the window, -1 while it lies past the window
+        private final long[] ringNext;
+        // position of the latest reference to enter the window for each page num, dropped once that reference
+        // was simulated and the page evicted, so only pages in the window or resident are kept
+        private final PageValues lastSeen = new PageValues();
+        // frame holding each resident page num, and the reverse
+        private final PageValues pageFrame = new PageValues();
+        private final long[] framePage;
+        private Trace source;
+        // position of the next reference to enter the window, and of the one being simulated
+        private long head = 0;
+        private long t = -1;
+        private long record;
+
+        public LookaheadOPT(int numFrames, int lookahead) {
+            super(numFrames, null);
+            capacity = lookahead + 1;
+            ring = new long[capacity];
+            ringNext = new long[capacity];
+            framePage = new long[numFrames];
+            Arrays.fill(framePage, -1);
+        }
+
+        @Override
+        public Trace lookahead(Trace trace) {
+            source = trace;
+            return this;
+        }
+
+        public boolean next() throws IOException {
+            t++;
+            // top the window back up to lookahead references past this one
+            while (head < t + capacity && source.next()) {
+                enter();
+            }
+            if (t == head) {
+                return false;
+            }
+            record = ring[(int) (t % capacity)];
+            return true;
+        }
+
+        public byte op() {
+            return BinaryTraceWriter.OPS[(int) record & 3];
+        }
+
+        public long address() {
+            return pageAddress(record >>> 2);
+        }
+
+        @Override
+        public void close() throws IOException {
+            source.close();
+        }
+
+        @Override
+        protected long nextUse() {
+            long next = ringNext[(int) (t % capacity)];
+            // past the window, rank above every known next use, the least recently used page highest
+            return next == -1 ? Long.MAX_VALUE - t : next;
+        }
+
+        @Override
+        public void onFault(int frame, long pageNum) {
+            super.onFault(frame, pageNum);
+            long victim = framePage[frame];
+            if (victim != -1) {
+                pageFrame.remove(victim);
+                // with no reference left in the window the next one is a first sight as far as enter goes
+                if (lastSeen.get(victim) < t) {
+                    lastSeen.remove(victim);
+                }
+            }
+            framePage[frame] = pageNum;
+            pageFrame.put(pageNum, frame);
+        }
+
+        // add the source's current reference to the end of the window
+        private void enter() {
+            long pageNum = getPageNum(source.address());
+            int slot = (int) (head % capacity);
+            ring[slot] = (pageNum << 2) | BinaryTraceWriter.opCode(source.op());
+            ringNext[slot] = -1;
+            long last = lastSeen.get(pageNum);
+            if (last >= t) {
+                // previous reference is still waiting in the window
+                ringNext[(int) (last % capacity)] = head;
+            } else if (last != -1) {
+                // previous reference was already simulated, its frame now knows when it is next used
+                int frame = (int) pageFrame.get(pageNum);
+                if (frame != -1) {
+                    update(frame, head);
+                }
+            }
+            lastSeen.put(pageNum, head);
+            head++;
+        }
+    }
+
+    // LRU stack distances over a trace, one access at a time
+    // every page's most recent access time holds a 1 in a Fenwick tree, so the number of distinct pages
+    // touched since a page's last access is a prefix sum, O(log n) per access
+    public static class StackDistance {
+        // most recent access time of each page num, -1 if not seen yet
+        private final PageValues lastTime = new PageValues();
+        // page accessed at each time, used to compact the time line once it fills up
+        private long[] timePage = new long[1 << 16];
+        private int[] tree = new int[(1 << 16) + 1];
+        private int now = 0;
+        private int distinct = 0;
+        private long references = 0;
+        // hist[d] = accesses at stack distance d, cold misses are counted separately
+        private long[] hist = new long[1 << 10];
+        private long coldMisses = 0;
+
+        // returns the access's stack distance, 0 for a cold miss
+        public int access(long pageNum) {
+            references++;
+            if (now == timePage.length) {
+                compact();
+            }
+            int last = (int) lastTime.get(pageNum);
+            int d = 0;
+            if (last == -1) {
+                coldMisses++;
+                distinct++;
+            } else {
+                // itself plus every distinct page accessed after it
+                d = 1 + sum(now - 1) - sum(last);
+                if (d >= hist.length) {
+                    hist = Arrays.copyOf(hist, Math.max(d + 1, hist.length * 2));
+                }
+                hist[d]++;
+                add(last, -1);
+            }
+            add(now, 1);
+            lastTime.put(pageNum, now);
+            timePage[now] = pageNum;
+            now++;
+            return d;
+        }
+
+        // forget page num, so its next access is cold, for a sampler that stops tracking it
+        public void remove(long pageNum) {
+            int last = (int) lastTime.get(pageNum);
+            if (last != -1) {
+                add(last, -1);
+                lastTime.remove(pageNum);
+                distinct--;
+            }
+        }
+
+        public long references() {
+            return references;
+        }
+
+        public int distinctPages() {
+            return distinct;
+        }
+
+        // faults[n] for n frames, n in [1, maxFrames]
+        public long[] faults(int maxFrames) {
+            long[] faults = new long[maxFrames + 1];
+            // with n frames, every access deeper than n misses
+            long misses = references - coldMisses;
+            for (int n = 1; n <= maxFrames; n++) {
+                if (n < hist.length) {
+                    misses -= hist[n];
+                }
+                faults[n] = coldMisses + misses;
+            }
+            return faults;
+        }
+
+        // renumber live access times 0..distinct-1 in order, growing the time line so at least half is free
+        private void compact() {
+            long[] pages = timePage;
+            if (distinct * 2 > pages.length) {
+                timePage = new long[pages.length * 2];
+            }
+            tree = new int[timePage.length + 1];
+            int t = 0;
+            for (int old = 0; old < now; old++) {
+                long page = pages[old];
+                if (lastTime.get(page) == old) {
+                    lastTime.put(page, t);
+                    timePage[t] = page;
+                    t++;
+                }
+            }
+            now = t;
+            // build the tree over the leading run of ones in O(n)
+            for (int i = 1; i < tree.length; i++) {
+                if (i <= now) {
+                    tree[i] += 1;
+                }
+                int parent = i + (i & -i);
+                if (parent < tree.length) {
+                    tree[parent] += tree[i];
+                }
+            }
+        }
+
+        private void add(int time, int delta) {
+            for (int i = time + 1; i < tree.length; i += i & -i) {
+                tree[i] += delta;
+            }
+        }
+
+        // number of live access times in [0, time]
+        private int sum(int time) {
+            int total = 0;
+            for (int i = time + 1; i > 0; i -= i & -i) {
+                total += tree[i];
+            }
+            return total;
+        }
+    }
+
+    // references to a spatially hashed sample of the pages, every reference to a sampled page is kept
+    // so each sampled page's behaviour is exact and the sample stands in for the whole trace at its rate
+    public static class SampledTrace implements Trace {
+        // page hashes fall in [0, MODULUS), a page is sampled if its hash is under the threshold
+        public static final long MODULUS = 1L << 24;
+
+        private final Trace trace;
+        private final long threshold;
+        // pages seen so far, to count them
+        private final PageValues seen = new PageValues();
+
+        // stats
+        long references = 0;
+        long sampled = 0;
+        long pages = 0;
+
+        public SampledTrace(Trace trace, double rate) {
+            this.trace = trace;
+            this.threshold = Math.max(1, Math.round(rate * MODULUS));
+        }
+
+        public double rate() {
+            return (double) threshold / MODULUS;
+        }
+
+        // page key hash, the splitmix64 finalizer so nearby pages spread out
+        public static long hash(long key) {
+            long h = key;
+            h = (h ^ (h >>> 30)) * 0xBF58476D1CE4E5B9L;
+            h = (h ^ (h >>> 27)) * 0x94D049BB133111EBL;
+            h ^= h >>> 31;
+            return h & (MODULUS - 1);
+        }
+
+        public boolean next() throws IOException {
+            while (trace.next()) {
+                references++;
+                long key = geometry.key(trace.asid(), getPageNum(trace.address()));
+                if (hash(key) < threshold) {
+                    sampled++;
+                    if (seen.get(key) == -1) {
+                        seen.put(key, 0);
+                        pages++;
+                    }
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        public byte op() {
+            return trace.op();
+        }
+
+        public long address() {
+            return trace.address();
+        }
+
+        public int asid() {
+            return trace.asid();
+        }
+
+        public int pid() {
+            return trace.pid();
+        }
+
+        public void close() throws IOException {
+            trace.close();
+        }
+    }
+
+    // SHARDS (Waldspurger et al.), lru stack distances of a spatially hashed sample of the pages, each divided by
+    // the sampling rate to stand in for the distance in the whole trace
+    // with a page limit the threshold drops to the largest tracked hash whenever the limit is passed, that page
+    // stops being tracked and everything counted so far is scaled down to the new rate
+    // distances are counted in a log linear histogram's buckets, so memory only grows with the tracked pages
+    public static class Shards {
+        private final int maxPages;
+        private long threshold;
+        private final StackDistance stack = new StackDistance();
+        // tracked pages in a max heap on hash, only kept with a page limit
+        private final long[] heapHash;
+        private final long[] heapKey;
+        private int heapSize = 0;
+        // sampled references per bucket of scaled distance, cold misses apart, all at the current rate
+        private final double[] weights = new double[Histogram.index(Long.MAX_VALUE) + 1];
+        private double coldWeight = 0;
+
+        // stats
+        long references = 0;
+        long sampled = 0;
+
+        public Shards(double rate, int maxPages) {
+            this.maxPages = maxPages;
+            this.threshold = Math.max(1, Math.round(rate * SampledTrace.MODULUS));
+            this.heapHash = new long[maxPages + 1];
+            this.heapKey = new long[maxPages + 1];
+        }
+
+        public double rate() {
+            return (double) threshold / SampledTrace.MODULUS;
+        }
+
+        public int distinctPages() {
+            return stack.distinctPages();
+        }
+
+        public void access(long pageNum) {
+            references++;
+            long hash = SampledTrace.hash(pageNum);
+            if (hash >= threshold) {
+                return;
+            }
+            sampled++;
+            int d = stack.access(pageNum);
+            if (d != 0) {
+                weights[Histogram.index(Math.round(d / rate()))]++;
+                return;
+            }
+            coldWeight++;
+            if (maxPages > 0) {
+                push(hash, pageNum);
+                if (heapSize > maxPages) {
+                    lowerThreshold();
+                }
+            }
+        }
+
+        // estimated faults[n] over the whole trace for n frames, n in [1, maxFrames], the sample's misses scaled up
+        // by the rate as in SHARDS_adj, with the buckets past the one n falls in as misses
+        public long[] faults(int maxFrames) {
+            long[] faults = new long[maxFrames + 1];
+            if (sampled == 0) {
+                return faults;
+            }
+            // misses[b], the weight of every bucket after b
+            double[] misses = new double[weights.length];
+            for (int b = weights.length - 2; b >= 0; b--) {
+                misses[b] = misses[b + 1] + weights[b + 1];
+            }
+            for (int n = 1; n <= maxFrames; n++) {
+                faults[n] = Math.round((coldWeight + misses[Histogram.index(n)]) / rate());
+            }
+            return faults;
+        }
+
+        public long coldReferences() {
+            return Math.round(coldWeight / rate());
+        }
+
+        // estimated references per power of two of distance, bin b holding distances in (2^(b-1), 2^b]
+        public long[] distanceBins() {
+            long[] bins = new long[64];
+            for (int b = 0; b < weights.length; b++) {
+                if (weights[b] != 0) {
+                    long d = Histogram.highestValue(b);
+                    int bin = d <= 1 ? 0 : 64 - Long.numberOfLeadingZeros(d - 1);
+                    bins[bin] += Math.round(weights[b] / rate());
+                }
+            }
+            return bins;
+        }
+
+        // drop the largest tracked hash from the sample, rescaling the counts to the lower rate
+        private void lowerThreshold() {
+            double old = rate();
+            threshold = heapHash[0];
+            while (heapSize > 0 && heapHash[0] >= threshold) {
+                stack.remove(heapKey[0]);
+                pop();
+            }
+            double scale = rate() / old;
+            for (int b = 0; b < weights.length; b++) {
+                weights[b] *= scale;
+            }
+            coldWeight *= scale;
+        }
+
+        private void push(long hash, long key) {
+            int i = heapSize++;
+            while (i > 0 && heapHash[(i - 1) >>> 1] < hash) {
+                int parent = (i - 1) >>> 1;
+                heapHash[i] = heapHash[parent];
+                heapKey[i] = heapKey[parent];
+                i = parent;
+            }
+            heapHash[i] = hash;
+            heapKey[i] = key;
+        }
+
+        private void pop() {
+            heapSize--;
+            long hash = heapHash[heapSize];
+            long key = heapKey[heapSize];
+            int i = 0;
+            while (true) {
+                int child = 2 * i + 1;
+                if (child >= heapSize) {
+                    break;
+                }
+                if (child + 1 < heapSize && heapHash[child + 1] > heapHash[child]) {
+                    child++;
+                }
+                if (heapHash[child] <= hash) {
+                    break;
+                }
+                heapHash[i] = heapHash[child];
+                heapKey[i] = heapKey[child];
+                i = child;
+            }
+            heapHash[i] = hash;
+            heapKey[i] = key;
+        }
+    }
+
+    // synthetic references, made as they're read, so a workload of any length costs no memory, files or parsing
+    // a spec is gen:<phase>[,<phase>...], the phases running in turn, each <pattern>[:<option>=<value>...] with
+    // pattern one of
+    //   uniform  every page equally likely
+    //   zipf     page base + r - 1 drawn with weight 1/r^theta, so the lowest pages are the hot ones
+    //   seq      a scan, pages in order from base with no page used twice, wrapping only at the end of the space
+    //   loop     pages in order from base, wrapping after pages of them
+    // and options
+    //   refs=<count>        references in the phase, 1M by default
+    //   pages=<count>       pages the phase draws from, 64K by default
+    //   base=<page>         first page, 0 by default
+    //   theta=<skew>        zipf's skew, 0.99 by default
+    //   mix=<i>/<l>/<s>/<m> relative weight of each op, 4/3/2/1 by default
+    //   seed=<seed>         restart the random numbers from seed, which the generator starts at 0
+    public static class Generator implements Trace {
+        static final String PREFIX = "gen:";
+        private static final int UNIFORM = 0;
+        private static final int ZIPF = 1;
+        private static final int SEQ = 2;
+        private static final int LOOP = 3;
+
+        private final Phase[] phases;
+        private final long pageMask;
+        private int phase = -1;
+        // references left in the current phase, and the next one's index in it
+        private long left = 0;
+        private long index;
+        private SplittableRandom random = new SplittableRandom(0);
+        private long pageNum;
+        private byte op;
+
+        public Generator(Phase[] phases) {
+            this.phases = phases;
+            this.pageMask = (1L << geometry.pageBits) - 1;
+        }
+
+        // parse gen:<phase>[,<phase>...], pages must fit the geometry's page nums
+        public static Generator parse(String spec) {
+            if (!spec.startsWith(PREFIX) || spec.length() == PREFIX.length()) {
+                throw new NumberFormatException(spec);
+            }
+            String[] specs = spec.substring(PREFIX.length()).split(",");
+            Phase[] phases = new Phase[specs.length];
+            for (int i = 0; i < specs.length; i++) {
+                phases[i] = Phase.parse(specs[i]);
+            }
+            return new Generator(phases);
+        }
+
+        public boolean next() {
+            while (left == 0) {
+                if (++phase == phases.length) {
+                    // stay at the end, like a file
+                    phase--;
+                    return false;
+                }
+                Phase p = phases[phase];
+                if (p.seeded) {
+                    random = new SplittableRandom(p.seed);
+                }
+                left = p.refs;
+                index = 0;
+            }
+            Phase p = phases[phase];
+            long offset;
+            switch (p.pattern) {
+                case UNIFORM:
+                    offset = random.nextLong(p.pages);
+                    break;
+                case ZIPF:
+                    offset = p.zipf(random) - 1;
+                    break;
+                case SEQ:
+                    offset = index;
+                    break;
+                default:
+                    offset = index % p.pages;
+                    break;
+            }
+            pageNum = (p.base + offset) & pageMask;
+            op = p.op(random);
+            index++;
+            left--;
+            return true;
+        }
+
+        public byte op() {
+            return op;
+        }
+
+        public long address() {
+            return pageAddress(pageNum);
+        }
+
+        public void close() {
+        }
+
+        // one phase of a workload, zipf drawn by rejection inversion (Hormann and Derflinger), which takes
+        // constant time and memory for any number of pages and any skew
+        static class Phase {
+            int pattern;
+            long refs = 1L << 20;
+            long pages = 1L << 16;
+            long base = 0;
+            double theta = 0.99;
+            // cumulative weights of the ops in BinaryTraceWriter.OPS order
+            final int[] mix = {4, 7, 9, 10};
+            boolean seeded = false;
+            long seed;
+            private double hIntegralX1;
+            private double hIntegralN;
+            private double s;
+
+            static Phase parse(String spec) {
+                String[] parts = spec.split(":");
+                Phase p = new Phase();
+                switch (parts[0]) {
+                    case "uniform":
+                        p.pattern = UNIFORM;
+                        break;
+                    case "zipf":
+                        p.pattern = ZIPF;
+                        break;
+                    case "seq":
+                        p.pattern = SEQ;
+                        break;
+                    case "loop":
+                        p.pattern = LOOP;
+                        break;
+                    default:
+                        throw new NumberFormatException(spec);
+                }
+                for (int i = 1; i < parts.length; i++) {
+                    int eq = parts[i].indexOf('=');
+                    if (eq == -1) {
+                        throw new NumberFormatException(parts[i]);
+                    }
+                    String value = parts[i].substring(eq + 1);
+                    switch (parts[i].substring(0, eq)) {
+                        case "refs":
+                            p.refs = parseCount(value);
+                            break;
+                        case "pages":
+                            p.pages = parseCount(value);
+                            break;
+                        case "base":
+                            p.base = Long.parseLong(value);
+                            break;
+                        case "theta":
+                            p.theta = Double.parseDouble(value);
+                            if (!(p.theta > 0) || Double.isInfinite(p.theta)) {
+                                throw new NumberFormatException(value);
+                            }
+                            break;
+                        case "mix":
+                            String[] weights = value.split("/");
+                            if (weights.length != BinaryTraceWriter.OPS.length) {
+                                throw new NumberFormatException(value);
+                            }
+                            int sum = 0;
+                            for (int w = 0; w < weights.length; w++) {
+                                int weight = Integer.parseInt(weights[w]);
+                                if (weight < 0 || weight > 1 << 16) {
+                                    throw new NumberFormatException(value);
+                                }
+                                sum += weight;
+                                p.mix[w] = sum;
+                            }
+                            if (sum == 0) {
+                                throw new NumberFormatException(value);
+                            }
+                            break;
+                        case "seed":
+                            p.seed = Long.parseLong(value);
+                            p.seeded = true;
+                            break;
+                        default:
+                            throw new NumberFormatException(parts[i]);
+                    }
+                }
+                // a scan's pages are the ones it reaches, the others must fit in the space
+                long pageCount = 1L << geometry.pageBits;
+                if (p.base < 0 || p.base >= pageCount || (p.pattern != SEQ && p.pages > pageCount - p.base)) {
+                    throw new NumberFormatException(spec);
+                }
+                if (p.pattern == ZIPF) {
+                    p.hIntegralX1 = p.hIntegral(1.5) - 1;
+                    p.hIntegralN = p.hIntegral(p.pages + 0.5);
+                    p.s = 2 - p.hIntegralInverse(p.hIntegral(2.5) - p.h(2));
+                }
+                return p;
+            }
+
+            byte op(SplittableRandom random) {
+                int r = random.nextInt(mix[BinaryTraceWriter.OPS.length - 1]);
+                int i = 0;
+                while (r >= mix[i]) {
+                    i++;
+                }
+                return BinaryTraceWriter.OPS[i];
+            }
+
+            // rank in [1, pages]
+            long zipf(SplittableRandom random) {
+                while (true) {
+                    double u = hIntegralN + random.nextDouble() * (hIntegralX1 - hIntegralN);
+                    double x = hIntegralInverse(u);
+                    long k = Math.max(1, Math.min(pages, (long) (x + 0.5)));
+                    if (k - x <= s || u >= hIntegral(k + 0.5) - h(k)) {
+                        return k;
+                    }
+                }
+            }
+
+            // h(x) = 1/x^theta, and its integral, shifted to pass through (1, 0), and its inverse
+            private double h(double x) {
+                return Math.exp(-theta * Math.log(x));
+            }
+
+            private double hIntegral(double x) {
+                double logX = Math.log(x);
+                return helper2((1 - theta) * logX) * logX;
+            }
+
+            private double hIntegralInverse(double x) {
+                double t = Math.max(-1, x * (1 - theta));
+                return Math.exp(helper1(t) * x);
+            }
+
+            // log(1 + x) / x and (e^x - 1) / x, by their series near 0 where the division loses precision
+            private static double helper1(double x) {
+                return Math.abs(x) > 1e-8 ? Math.log1p(x) / x : 1 - x * (0.5 - x * (1.0 / 3 - 0.25 * x));
+            }
+
+            private static double helper2(double x) {
+                return Math.abs(x) > 1e-8 ? Math.expm1(x) / x : 1 + x * 0.5 * (1 + x * (1.0 / 3) * (1 + 0.25 * x));
+            }
         }
     }
-}
\ No newline at end of file
+}